@@ -24,18 +24,57 @@ public abstract class AbstractJoinTask extends AsyncTask<String, Void, Integer>
         params.put(Keys.ACTION, Keys.JOIN_INSTANCE);
         params.put(Keys.INSTANCE_NAME, strings[0]);
 
-        String host = System.getProperty(Keys.IP);
-        ArrayList<Integer> ports = (ArrayList<Integer>) handler.sendGet(params);
+        return join(strings[0], handler.sendGet(params));
+    }
 
-        ServerConnection serverConnection = new ServerConnection(host, ports.get(0));
-        ConnectionHandler.setConnection(serverConnection);
+    /**
+     * Connects to a game instance, given the server's response
+     * to the action "join instance".
+     *
+     * @param instanceName the name of the game instance.
+     * @param response the port, capacity and number of choices
+     *                 of the game instance.
+     * @return 0 if the game instance was joined or -1 otherwise.
+     */
+    protected Integer join(String instanceName, Object response)
+    {
+        if(!(response instanceof ArrayList))
+            return -1;
 
-        ServerConnection utilityConnection = new ServerConnection(host, ports.get(1));
-        ConnectionHandler.setUtilityConnection(utilityConnection);
+        ArrayList<Integer> ports = (ArrayList<Integer>) response;
+
+        if(ports.isEmpty())
+            return -1;
+
+        String host = System.getProperty(Keys.IP);
+        String username = System.getProperty(Keys.USERNAME);
 
-        if(serverConnection.isConnected())
-            serverConnection.sendMessage(System.getProperty(Keys.USERNAME));
+        ConnectionHandler.setCapacity(ports.size() > 1 ? ports.get(1) : Keys.MAX_PLAYERS);
+        ConnectionHandler.setNumChoices(ports.size() > 2 ? ports.get(2) : Keys.CLASSIC_CHOICES);
+        connect(host, ports.get(0), instanceName, username);
 
         return 0;
     }
+
+    /**
+     * Opens the primary and secondary connections to a game instance,
+     * presenting the session token that was issued at login.
+     *
+     * @param host the server's host IP.
+     * @param port the port of the game instance.
+     * @param instanceName the name of the game instance.
+     * @param username the name of the player.
+     */
+    protected void connect(String host, int port, String instanceName, String username)
+    {
+        String token = System.getProperty(Keys.SESSION_TOKEN);
+
+        ServerConnection serverConnection =
+                new ServerConnection(host, port, instanceName, username, token, false);
+        ConnectionHandler.setConnection(serverConnection);
+
+        ServerConnection utilityConnection =
+                new ServerConnection(host, port, instanceName, username, token, true);
+        ConnectionHandler.setUtilityConnection(utilityConnection);
+    }
 }
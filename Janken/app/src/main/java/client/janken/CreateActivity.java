@@ -11,6 +11,8 @@ import android.widget.EditText;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import util.janken.ConnectionHandler;
 import util.janken.HttpHandler;
@@ -22,7 +24,8 @@ import util.janken.ServerConnection;
  * instance on the server. The name of the instance is
  * provided by the client. The client will be immediately
  * connected to the game instance upon completion of the
- * class' tasks.
+ * class' tasks, which create and join the instance in a
+ * single request.
  */
 public class CreateActivity extends AppCompatActivity
 {
@@ -54,15 +57,27 @@ public class CreateActivity extends AppCompatActivity
         @Override
         protected Integer doInBackground(String... strings)
         {
-            HashMap<String, String> params = new HashMap<>();
+            HashMap<String, String> createParams = new HashMap<>();
+            HashMap<String, String> joinParams = new HashMap<>();
+            List<Map<String, String>> operations = new ArrayList<>();
             HttpHandler handler = new HttpHandler();
 
-            params.put(Keys.ACTION, Keys.CREATE_INSTANCE);
-            params.put(Keys.INSTANCE_NAME, strings[0]);
-            int status = handler.sendPost(params);
+            // The instance is created and joined in a single round trip.
+            createParams.put(Keys.ACTION, Keys.CREATE_INSTANCE);
+            createParams.put(Keys.INSTANCE_NAME, strings[0]);
+            joinParams.put(Keys.ACTION, Keys.JOIN_INSTANCE);
+            joinParams.put(Keys.INSTANCE_NAME, strings[0]);
+            operations.add(createParams);
+            operations.add(joinParams);
+            List<Object> results = handler.sendBatch(operations);
+
+            if(results == null || results.size() < 2 || !(results.get(0) instanceof Integer))
+                return -1;
+
+            int status = (Integer) results.get(0);
 
             if(status >= 200 && status < 300)
-                super.doInBackground(strings);
+                join(strings[0], results.get(1));
 
             return status;
         }
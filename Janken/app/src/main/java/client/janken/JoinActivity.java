@@ -5,10 +5,10 @@ import android.content.Intent;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
-import android.widget.ListView;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -25,11 +25,30 @@ import util.janken.ServerConnection;
  * instances and join a given instance by choice. A connection
  * to the instance will be made once the class has finished
  * its intended tasks.
+ *
+ * <p> Only instances with a free slot are listed, one page at a
+ * time. The next page is fetched once the end of the list has
+ * been scrolled into view.
+ *
+ * <p> Once the first page has been loaded, the list is kept up to
+ * date by waiting for changes to the lobby, which the server sends
+ * as they happen, rather than by listing the instances again.
  */
-public class JoinActivity extends ListActivity implements AdapterView.OnItemClickListener
+public class JoinActivity extends ListActivity
+        implements AdapterView.OnItemClickListener, AbsListView.OnScrollListener
 {
-    private List<String> instances;
+    private static final String PAGE_SIZE = "20";
+    private static final int POLL_TIMEOUT = 35000;
+    private static final int RETRY_DELAY = 5000;
+    private final List<String> instances = new ArrayList<>();
+    private final List<String> labels = new ArrayList<>();
+    private ArrayAdapter<String> adapter;
     private String instanceName;
+    private String cursor;
+    private boolean loading;
+    private boolean watching;
+    private boolean destroyed;
+    private long version;
     private Button joinButton;
 
     @Override
@@ -44,7 +63,11 @@ public class JoinActivity extends ListActivity implements AdapterView.OnItemClic
     {
         joinButton = (Button) findViewById(R.id.joinButton);
         joinButton.setEnabled(false);
-        new GetInstancesTask().execute();
+        adapter = new ArrayAdapter<>(this, R.layout.link_item, labels);
+        getListView().setAdapter(adapter);
+        getListView().setOnItemClickListener(this);
+        getListView().setOnScrollListener(this);
+        loadPage(null);
 
         joinButton.setOnClickListener(new View.OnClickListener()
         {
@@ -56,6 +79,13 @@ public class JoinActivity extends ListActivity implements AdapterView.OnItemClic
         });
     }
 
+    @Override
+    protected void onDestroy()
+    {
+        super.onDestroy();
+        destroyed = true;
+    }
+
     @Override
     public void onItemClick(AdapterView<?> adapterView, View v, int position, long id)
     {
@@ -63,39 +93,180 @@ public class JoinActivity extends ListActivity implements AdapterView.OnItemClic
         joinButton.setEnabled(true);
     }
 
-    private class GetInstancesTask extends AsyncTask<Void, Void, List<String>>
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState)
+    {
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount)
+    {
+        if(cursor != null && firstVisibleItem + visibleItemCount >= totalItemCount)
+            loadPage(cursor);
+    }
+
+    private void loadPage(String pageCursor)
+    {
+        if(loading)
+            return;
+
+        loading = true;
+        new GetInstancesTask().execute(pageCursor);
+    }
+
+    private void watchLobby()
+    {
+        if(!destroyed)
+            new WatchLobbyTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, version);
+    }
+
+    private void showInstance(String name, int openSlots)
+    {
+        int index = instances.indexOf(name);
+        String label = name + " (" + openSlots + " open)";
+
+        if(index < 0)
+        {
+            instances.add(name);
+            labels.add(label);
+        }
+        else
+            labels.set(index, label);
+    }
+
+    private void removeInstance(String name)
+    {
+        int index = instances.indexOf(name);
+
+        if(index >= 0)
+        {
+            instances.remove(index);
+            labels.remove(index);
+        }
+
+        if(name.equals(instanceName))
+        {
+            instanceName = null;
+            joinButton.setEnabled(false);
+        }
+    }
+
+    private class GetInstancesTask extends AsyncTask<String, Void, HashMap<String, Object>>
     {
         @Override
-        protected List<String> doInBackground(Void... voids)
+        protected HashMap<String, Object> doInBackground(String... cursors)
         {
             HttpHandler handler = new HttpHandler();
             HashMap<String, String> params = new HashMap<>();
 
-            params.put(Keys.ACTION, Keys.GET_INSTANCES);
+            params.put(Keys.ACTION, Keys.BROWSE_INSTANCES);
+            params.put(Keys.MIN_FREE, "1");
+            params.put(Keys.LIMIT, PAGE_SIZE);
 
-            instances = (List<String>) handler.sendGet(params);
+            if(cursors[0] != null)
+                params.put(Keys.CURSOR, cursors[0]);
 
-            return instances;
+            return (HashMap<String, Object>) handler.sendGet(params);
         }
 
         @Override
-        protected void onPostExecute(List<String> instances)
+        protected void onPostExecute(HashMap<String, Object> page)
         {
+            loading = false;
+
+            if(page == null)
+            {
+                cursor = null;
+
+                if(instances.isEmpty())
+                    joinButton.setVisibility(View.GONE);
+
+                return;
+            }
+
+            List<String> names = (List<String>) page.get(Keys.PAGE_INSTANCES);
+            List<Integer> openSlots = (List<Integer>) page.get(Keys.PAGE_OPEN_SLOTS);
+
+            for (int i = 0; i < names.size(); i++)
+                showInstance(names.get(i), openSlots.get(i));
+
+            cursor = (String) page.get(Keys.CURSOR);
+            adapter.notifyDataSetChanged();
+
+            if(!watching && page.containsKey(Keys.VERSION))
+            {
+                watching = true;
+                version = (Long) page.get(Keys.VERSION);
+                watchLobby();
+            }
+
             if(instances.isEmpty())
                 joinButton.setVisibility(View.GONE);
+        }
+    }
+
+    private class WatchLobbyTask extends AsyncTask<Long, Void, HashMap<String, Object>>
+    {
+        @Override
+        protected HashMap<String, Object> doInBackground(Long... versions)
+        {
+            HttpHandler handler = new HttpHandler();
+            HashMap<String, String> params = new HashMap<>();
+
+            params.put(Keys.ACTION, Keys.GET_UPDATES);
+            params.put(Keys.VERSION, String.valueOf(versions[0]));
+
+            return (HashMap<String, Object>) handler.sendGet(params, POLL_TIMEOUT);
+        }
 
-            try
+        @Override
+        protected void onPostExecute(HashMap<String, Object> feed)
+        {
+            if(destroyed)
+                return;
+
+            if(feed == null)
             {
-                ListView instanceList;
-                instanceList = getListView();
-                instanceList.setAdapter(new ArrayAdapter<>(JoinActivity.this, R.layout.link_item, instances));
-                instanceList.setOnItemClickListener(JoinActivity.this);
+                getListView().postDelayed(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        watchLobby();
+                    }
+                }, RETRY_DELAY);
+
+                return;
             }
-            catch (NullPointerException npe)
+
+            if(feed.containsKey(Keys.RESET))
             {
-                joinButton.setVisibility(View.GONE);
-                npe.printStackTrace(System.err);
+                // Too much has changed; the list is loaded again, which resumes watching.
+                watching = false;
+                cursor = null;
+                instances.clear();
+                labels.clear();
+                adapter.notifyDataSetChanged();
+                loading = true;
+                new GetInstancesTask().execute((String) null);
+
+                return;
+            }
+
+            HashMap<String, Integer> changes = (HashMap<String, Integer>) feed.get(Keys.CHANGES);
+
+            for (String name : changes.keySet())
+            {
+                if(changes.get(name) > 0)
+                    showInstance(name, changes.get(name));
+                else
+                    removeInstance(name);
             }
+
+            version = (Long) feed.get(Keys.VERSION);
+            adapter.notifyDataSetChanged();
+            joinButton.setVisibility(instances.isEmpty() ? View.GONE : View.VISIBLE);
+            watchLobby();
         }
     }
 
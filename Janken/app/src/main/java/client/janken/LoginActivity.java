@@ -60,7 +60,12 @@ public class LoginActivity extends AppCompatActivity
             params.put(Keys.USERNAME, strings[0]);
             params.put(Keys.PASSWORD, strings[1]);
 
-            return handler.sendPost(params);
+            int status = handler.sendPost(params);
+
+            if(handler.getSessionToken() != null)
+                System.setProperty(Keys.SESSION_TOKEN, handler.getSessionToken());
+
+            return status;
         }
 
         @Override
@@ -6,6 +6,12 @@ import android.os.Bundle;
 import android.view.View;
 import android.widget.Button;
 
+import java.util.HashMap;
+
+import util.janken.ConnectionHandler;
+import util.janken.HttpHandler;
+import util.janken.Keys;
+
 /**
  * This activity class is transitory, and allows the client
  * to choose an action to be taken by the application before
@@ -23,10 +29,21 @@ public class MenuActivity extends AppCompatActivity
 
     private void setupActivity()
     {
+        final Button quickJoinOptionButton = (Button) findViewById(R.id.quickJoinOptionButton);
         Button createOptionButton = (Button) findViewById(R.id.createOptionButton);
         Button joinOptionButton = (Button) findViewById(R.id.joinOptionButton);
         Button statsOptionButton = (Button) findViewById(R.id.statsOptionButton);
 
+        quickJoinOptionButton.setOnClickListener(new View.OnClickListener()
+        {
+            @Override
+            public void onClick(View view)
+            {
+                quickJoinOptionButton.setEnabled(false);
+                new QuickJoinTask(quickJoinOptionButton).execute();
+            }
+        });
+
         createOptionButton.setOnClickListener(new View.OnClickListener()
         {
             @Override
@@ -57,4 +74,56 @@ public class MenuActivity extends AppCompatActivity
             }
         });
     }
+
+    /**
+     * This class represents the task of letting the server pick
+     * a game instance to join, and joining it.
+     */
+    private class QuickJoinTask extends AbstractJoinTask
+    {
+        private final Button quickJoinButton;
+
+        private QuickJoinTask(Button quickJoinButton)
+        {
+            this.quickJoinButton = quickJoinButton;
+        }
+
+        @Override
+        protected Integer doInBackground(String... strings)
+        {
+            HttpHandler handler = new HttpHandler();
+            HashMap<String, String> params = new HashMap<>();
+            String username = System.getProperty(Keys.USERNAME);
+
+            params.put(Keys.ACTION, Keys.QUICK_JOIN);
+            params.put(Keys.USERNAME, username);
+            params.put(Keys.SESSION_TOKEN, System.getProperty(Keys.SESSION_TOKEN));
+
+            HashMap<String, Object> details = (HashMap<String, Object>) handler.sendGet(params);
+
+            if(details == null || !details.containsKey(Keys.INSTANCE_NAME))
+                return -1;
+
+            ConnectionHandler.setCapacity(details.containsKey(Keys.CAPACITY)
+                    ? (Integer) details.get(Keys.CAPACITY) : Keys.MAX_PLAYERS);
+            ConnectionHandler.setNumChoices(details.containsKey(Keys.CHOICES)
+                    ? (Integer) details.get(Keys.CHOICES) : Keys.CLASSIC_CHOICES);
+            connect(System.getProperty(Keys.IP), (Integer) details.get(Keys.PORT),
+                    (String) details.get(Keys.INSTANCE_NAME), username);
+
+            return 0;
+        }
+
+        @Override
+        protected void onPostExecute(Integer status)
+        {
+            quickJoinButton.setEnabled(true);
+
+            if(status == 0)
+            {
+                Intent intent = new Intent(MenuActivity.this, PlayActivity.class);
+                startActivity(intent);
+            }
+        }
+    }
 }
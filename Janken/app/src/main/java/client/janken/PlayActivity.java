@@ -3,19 +3,24 @@ package client.janken;
 import android.os.AsyncTask;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.text.TextUtils;
 import android.view.View;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
+import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import util.janken.ConnectionHandler;
 import util.janken.Keys;
+import util.janken.RosterUpdate;
 import util.janken.ServerConnection;
 
 /**
@@ -26,6 +31,15 @@ import util.janken.ServerConnection;
  * and communications with the server. The class makes use
  * of scheduled multi-threading and parallel execution of
  * asynchronous tasks.
+ *
+ * <p> Messages from the server are read by one task at a time,
+ * which is started as soon as the player may act, so that a
+ * missed deadline is shown at once and never confused with the
+ * answer to a later phase.
+ *
+ * <p> Connected players are shown in a scrolling list, which
+ * is updated in place by each roster change, so that
+ * instances with many players remain cheap to follow.
  */
 public class PlayActivity extends AppCompatActivity
 {
@@ -35,17 +49,16 @@ public class PlayActivity extends AppCompatActivity
     private Button rockButton;
     private Button paperButton;
     private Button scissorsButton;
+    private Button spockButton;
+    private Button lizardButton;
     private TextView winnerText;
     private TextView winnerName;
     private ProgressBar gameProgress;
     private ServerConnection serverConnection;
     private ServerConnection utilityConnection;
-    private TextView player1;
-    private TextView player2;
-    private TextView player3;
-    private TextView player4;
+    private ArrayAdapter<String> playerAdapter;
     private final ScheduledExecutorService heartBeatScheduler = Executors.newScheduledThreadPool(1);
-    private final ScheduledExecutorService updateScheduler = Executors.newScheduledThreadPool(1);
+    private final ExecutorService updateExecutor = Executors.newSingleThreadExecutor();
 
     @Override
     protected void onCreate(Bundle savedInstanceState)
@@ -64,13 +77,15 @@ public class PlayActivity extends AppCompatActivity
         utilityConnection = ConnectionHandler.getUtilityConnection();
 
         heartBeatScheduler.scheduleAtFixedRate(new HeartBeatTask(), 1, 1, TimeUnit.SECONDS);
-        updateScheduler.scheduleAtFixedRate(new GetPlayerListTask(), 1, 1, TimeUnit.SECONDS);
+        updateExecutor.execute(new GetPlayerListTask());
 
         readyButton = (Button) findViewById(R.id.readyButton);
         waitButton = (Button) findViewById(R.id.waitButton);
         rockButton = (Button) findViewById(R.id.rockButton);
         paperButton = (Button) findViewById(R.id.paperButton);
         scissorsButton = (Button) findViewById(R.id.scissorsButton);
+        spockButton = (Button) findViewById(R.id.spockButton);
+        lizardButton = (Button) findViewById(R.id.lizardButton);
         winnerText = (TextView) findViewById(R.id.winnerText);
         winnerName = (TextView) findViewById(R.id.winnerName);
         gameProgress = (ProgressBar) findViewById(R.id.gameProgress);
@@ -80,18 +95,26 @@ public class PlayActivity extends AppCompatActivity
         rockButton.setEnabled(false);
         paperButton.setEnabled(false);
         scissorsButton.setEnabled(false);
+        spockButton.setEnabled(false);
+        lizardButton.setEnabled(false);
         winnerText.setVisibility(View.GONE);
 
-        player1 = (TextView) findViewById(R.id.player1);
-        player2 = (TextView) findViewById(R.id.player2);
-        player3 = (TextView) findViewById(R.id.player3);
-        player4 = (TextView) findViewById(R.id.player4);
+        // Spock and lizard are only offered by instances that play by those rules.
+        if(ConnectionHandler.getNumChoices() < 5)
+        {
+            spockButton.setVisibility(View.GONE);
+            lizardButton.setVisibility(View.GONE);
+        }
+
+        playerAdapter = new ArrayAdapter<>(this, R.layout.link_item, players);
+        ((ListView) findViewById(R.id.playerList)).setAdapter(playerAdapter);
 
         readyButton.setOnClickListener(new View.OnClickListener()
         {
             @Override
             public void onClick(View view)
             {
+                setReadyButtons(false);
                 new ReadyTask().execute(Keys.READY_MESSAGE);
                 winnerText.setVisibility(View.GONE);
                 winnerName.setText("");
@@ -104,6 +127,7 @@ public class PlayActivity extends AppCompatActivity
             @Override
             public void onClick(View view)
             {
+                setReadyButtons(false);
                 new ReadyTask().execute(Keys.WAIT_MESSAGE);
                 winnerText.setVisibility(View.GONE);
                 winnerName.setText("");
@@ -143,6 +167,28 @@ public class PlayActivity extends AppCompatActivity
                 new ChoiceTask().execute(Keys.SCISSORS);
             }
         });
+
+        spockButton.setOnClickListener(new View.OnClickListener()
+        {
+            @Override
+            public void onClick(View view)
+            {
+                gameProgress.setVisibility(View.VISIBLE);
+                setPlayButtons(false);
+                new ChoiceTask().execute(Keys.SPOCK);
+            }
+        });
+
+        lizardButton.setOnClickListener(new View.OnClickListener()
+        {
+            @Override
+            public void onClick(View view)
+            {
+                gameProgress.setVisibility(View.VISIBLE);
+                setPlayButtons(false);
+                new ChoiceTask().execute(Keys.LIZARD);
+            }
+        });
     }
 
     private void setPlayButtons(boolean state)
@@ -150,6 +196,8 @@ public class PlayActivity extends AppCompatActivity
         rockButton.setEnabled(state);
         paperButton.setEnabled(state);
         scissorsButton.setEnabled(state);
+        spockButton.setEnabled(state);
+        lizardButton.setEnabled(state);
     }
 
     private void setReadyButtons(boolean state)
@@ -158,39 +206,6 @@ public class PlayActivity extends AppCompatActivity
         waitButton.setEnabled(state);
     }
 
-    private void updatePlayerList(List<String> players)
-    {
-        for (int i = 0; i < Keys.MAX_PLAYERS; i++)
-        {
-            switch(i)
-            {
-                case 0 : player1.setText("");
-                    break;
-                case 1 : player2.setText("");
-                    break;
-                case 2 : player3.setText("");
-                    break;
-                case 3 : player4.setText("");
-                    break;
-            }
-        }
-
-        for (int i = 0; i < players.size(); i++)
-        {
-            switch(i)
-            {
-                case 0 : player1.setText(players.get(i));
-                    break;
-                case 1 : player2.setText(players.get(i));
-                    break;
-                case 2 : player3.setText(players.get(i));
-                    break;
-                case 3 : player4.setText(players.get(i));
-                    break;
-            }
-        }
-    }
-
     @Override
     public void onBackPressed()
     {
@@ -204,9 +219,9 @@ public class PlayActivity extends AppCompatActivity
 
         System.out.println("Destroying game session...");
         heartBeatScheduler.shutdown();
-        updateScheduler.shutdown();
         ConnectionHandler.getConnection().close();
         ConnectionHandler.getUtilityConnection().close();
+        updateExecutor.shutdownNow();
         ConnectionHandler.setConnection(null);
         ConnectionHandler.setUtilityConnection(null);
         System.out.println("Game session destroyed!");
@@ -214,12 +229,6 @@ public class PlayActivity extends AppCompatActivity
 
     private class WaitForConnectionTask extends AsyncTask<Void, Void, Void>
     {
-        @Override
-        protected void onPreExecute()
-        {
-            updatePlayerList(players);
-        }
-
         @Override
         protected Void doInBackground(Void... voids)
         {
@@ -231,10 +240,16 @@ public class PlayActivity extends AppCompatActivity
         @Override
         protected void onPostExecute(Void aVoid)
         {
-            if(players.size() < 4)
+            if(players.size() < ConnectionHandler.getCapacity())
+            {
                 setReadyButtons(true);
+                new WaitForGameReadyTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            }
             else
+            {
                 setPlayButtons(true);
+                new WaitForResultTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            }
 
             gameProgress.setVisibility(View.GONE);
         }
@@ -245,76 +260,123 @@ public class PlayActivity extends AppCompatActivity
         @Override
         protected String doInBackground(Void... voids)
         {
-            String input = serverConnection.waitForMessage();
-            String status = "";
+            String input;
+
+            do
+            {
+                input = serverConnection.waitForMessage();
 
-            if(input.equals(Keys.WAIT_MESSAGE) || input.equals(Keys.PLAYING_MESSAGE))
-                status = input;
+                // The ready deadline passed before the player made up their mind.
+                if(input.equals(Keys.EXPIRED_MESSAGE))
+                    publishProgress();
+            }
+            while(!input.isEmpty() && !input.equals(Keys.WAIT_MESSAGE)
+                    && !input.equals(Keys.PLAYING_MESSAGE));
 
-            System.out.println(status + " received!");
+            System.out.println(input + " received!");
 
-            return status;
+            return input;
         }
 
         @Override
-        protected void onPostExecute(String status)
+        protected void onProgressUpdate(Void... values)
         {
-            updatePlayerList(players);
+            setReadyButtons(false);
+            gameProgress.setVisibility(View.VISIBLE);
+        }
 
+        @Override
+        protected void onPostExecute(String status)
+        {
             if(status.equals(Keys.WAIT_MESSAGE))
                 new WaitForConnectionTask().execute();
             else if(status.equals(Keys.PLAYING_MESSAGE))
             {
                 setPlayButtons(true);
                 gameProgress.setVisibility(View.GONE);
+                new WaitForResultTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
             }
         }
     }
 
-    private class ReadyTask extends AsyncTask<String, Void, Void>
+    private class WaitForResultTask extends AsyncTask<Void, Void, String>
     {
         @Override
-        protected Void doInBackground(String... strings)
+        protected String doInBackground(Void... voids)
         {
-            serverConnection.sendMessage(strings[0]);
+            String input;
 
-            return null;
-        }
+            do
+            {
+                input = serverConnection.waitForMessage();
 
-        @Override
-        protected void onPostExecute(Void aVoid)
-        {
-            setReadyButtons(false);
-            new WaitForGameReadyTask().execute();
+                // The choice deadline passed before the player chose.
+                if(input.equals(Keys.EXPIRED_MESSAGE))
+                    publishProgress();
+            }
+            while(input.equals(Keys.EXPIRED_MESSAGE));
+
+            return input;
         }
-    }
 
-    private class ChoiceTask extends AsyncTask<String, Void, String>
-    {
         @Override
-        protected String doInBackground(String... strings)
+        protected void onProgressUpdate(Void... values)
         {
-            serverConnection.sendMessage(strings[0]);
-
-            return serverConnection.waitForMessage();
+            setPlayButtons(false);
+            gameProgress.setVisibility(View.VISIBLE);
         }
 
         @Override
         protected void onPostExecute(String result)
         {
-            if(!result.equals(Keys.WAIT_MESSAGE))
+            if(result.isEmpty())
+                return;
+
+            if(result.equals(Keys.WINNER_MESSAGE))
             {
+                List<String> winners = serverConnection.getWinners();
+
+                setPlayButtons(false);
                 setReadyButtons(true);
 
+                if(winners.contains(System.getProperty(Keys.USERNAME)))
+                    winnerText.setText(R.string.you_won);
+                else
+                    winnerText.setText(winners.size() > 1
+                            ? R.string.winners_direction : R.string.winner_direction);
+
                 winnerText.setVisibility(View.VISIBLE);
-                winnerName.setText(result);
+                winnerName.setText(TextUtils.join(", ", winners));
                 gameProgress.setVisibility(View.GONE);
+                new WaitForGameReadyTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
             }
             else
                 new WaitForConnectionTask().execute();
         }
     }
 
+    private class ReadyTask extends AsyncTask<String, Void, Void>
+    {
+        @Override
+        protected Void doInBackground(String... strings)
+        {
+            serverConnection.sendMessage(strings[0]);
+
+            return null;
+        }
+    }
+
+    private class ChoiceTask extends AsyncTask<String, Void, Void>
+    {
+        @Override
+        protected Void doInBackground(String... strings)
+        {
+            serverConnection.sendMessage(strings[0]);
+
+            return null;
+        }
+    }
+
     private class HeartBeatTask implements Runnable
     {
         @Override
@@ -329,26 +391,32 @@ public class PlayActivity extends AppCompatActivity
         @Override
         public void run()
         {
-            List<String> players = utilityConnection.waitForPlayerlist();
+            while(utilityConnection.isConnected())
+            {
+                RosterUpdate update = utilityConnection.waitForRosterUpdate();
 
-            new UpdatePlayerListTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, players);
+                if(update == null)
+                    return;
+
+                // Updates are applied in order, one after another.
+                new UpdatePlayerListTask().executeOnExecutor(AsyncTask.SERIAL_EXECUTOR, update);
+            }
         }
     }
 
-    private class UpdatePlayerListTask extends AsyncTask<List<String>, Void, List<String>>
+    private class UpdatePlayerListTask extends AsyncTask<RosterUpdate, Void, RosterUpdate>
     {
         @Override
-        protected List<String> doInBackground(List<String>... lists)
+        protected RosterUpdate doInBackground(RosterUpdate... updates)
         {
-            players = lists[0];
-
-            return players;
+            return updates[0];
         }
 
         @Override
-        protected void onPostExecute(List<String> players)
+        protected void onPostExecute(RosterUpdate update)
         {
-            updatePlayerList(players);
+            update.applyTo(players);
+            playerAdapter.notifyDataSetChanged();
         }
     }
 }
@@ -11,6 +11,8 @@ public class ConnectionHandler
 {
     private static ServerConnection connection;
     private static ServerConnection utilityConnection;
+    private static int capacity = Keys.MAX_PLAYERS;
+    private static int numChoices = Keys.CLASSIC_CHOICES;
 
     /**
      * Retrieves the primary connection.
@@ -63,4 +65,49 @@ public class ConnectionHandler
     {
         ConnectionHandler.utilityConnection = utilityConnection;
     }
-}
\ No newline at end of file
+
+    /**
+     * Retrieves the number of players that the joined
+     * game instance can hold.
+     *
+     * @return the capacity of the game instance.
+     */
+    public static int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Sets the number of players that the joined
+     * game instance can hold.
+     *
+     * @param capacity the capacity of the game instance.
+     */
+    public static void setCapacity(int capacity)
+    {
+        ConnectionHandler.capacity = capacity;
+    }
+
+    /**
+     * Retrieves the number of choices that the joined game
+     * instance offers, taken in the order rock, paper,
+     * scissors, Spock and lizard.
+     *
+     * @return the number of choices.
+     */
+    public static int getNumChoices()
+    {
+        return numChoices;
+    }
+
+    /**
+     * Sets the number of choices that the joined game
+     * instance offers.
+     *
+     * @param numChoices the number of choices.
+     */
+    public static void setNumChoices(int numChoices)
+    {
+        ConnectionHandler.numChoices = numChoices;
+    }
+}
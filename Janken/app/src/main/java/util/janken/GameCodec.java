@@ -0,0 +1,216 @@
+package util.janken;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class converts game messages to and from the payloads
+ * of the frames exchanged with the game server.
+ *
+ * <p> A payload starts with a one byte opcode. States, choices
+ * and heartbeats consist of the opcode alone, a round's winners are
+ * followed by a varint count and that many strings, and a roster
+ * snapshot is followed by a varint version,
+ * a varint count and that many strings. A roster change, in which a
+ * single player joins or leaves, is followed by a varint version and
+ * the player's name. Strings are encoded as a varint byte length followed
+ * by UTF-8 bytes. The opcode table must be kept in sync with the
+ * server's codec.
+ *
+ * <p> Decoded states are returned as the shared constants in
+ * {@link Keys}, so reading them allocates nothing.
+ */
+public class GameCodec
+{
+    private static final byte HANDSHAKE = 0x01;
+    private static final byte HEARTBEAT = 0x02;
+    private static final byte READY = 0x10;
+    private static final byte WAIT = 0x11;
+    private static final byte CONNECTED = 0x12;
+    private static final byte PLAYING = 0x13;
+    private static final byte EXPIRED = 0x14;
+    private static final byte ROCK = 0x20;
+    private static final byte PAPER = 0x21;
+    private static final byte SCISSORS = 0x22;
+    private static final byte SPOCK = 0x23;
+    private static final byte LIZARD = 0x24;
+    private static final byte WINNER = 0x30;
+    private static final byte ROSTER = 0x40;
+    private static final byte ROSTER_JOIN = 0x41;
+    private static final byte ROSTER_LEAVE = 0x42;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String[] MESSAGES = new String[0x30];
+
+    static
+    {
+        MESSAGES[HEARTBEAT] = Keys.HEARTBEAT;
+        MESSAGES[READY] = Keys.READY_MESSAGE;
+        MESSAGES[WAIT] = Keys.WAIT_MESSAGE;
+        MESSAGES[CONNECTED] = Keys.CONNECTED_MESSAGE;
+        MESSAGES[PLAYING] = Keys.PLAYING_MESSAGE;
+        MESSAGES[EXPIRED] = Keys.EXPIRED_MESSAGE;
+        MESSAGES[ROCK] = Keys.ROCK;
+        MESSAGES[PAPER] = Keys.PAPER;
+        MESSAGES[SCISSORS] = Keys.SCISSORS;
+        MESSAGES[SPOCK] = Keys.SPOCK;
+        MESSAGES[LIZARD] = Keys.LIZARD;
+    }
+
+    /**
+     * Encodes the handshake that opens a connection.
+     *
+     * @param instanceName the name of the game instance to join.
+     * @param playerName the name of the joining player.
+     * @param token the session token issued at login.
+     * @param utility <tt>true</tt> for a secondary connection and
+     *                <tt>false</tt> for a primary connection.
+     * @return the handshake payload.
+     */
+    public static byte[] encodeHandshake(String instanceName, String playerName, String token,
+                                         boolean utility)
+    {
+        byte[] instance = instanceName.getBytes(UTF_8);
+        byte[] player = playerName.getBytes(UTF_8);
+        byte[] session = (token == null ? "" : token).getBytes(UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(2 + sizeOf(instance) + sizeOf(player)
+                + sizeOf(session));
+
+        payload.put(HANDSHAKE);
+        payload.put((byte) (utility ? 1 : 0));
+        putString(payload, instance);
+        putString(payload, player);
+        putString(payload, session);
+
+        return payload.array();
+    }
+
+    /**
+     * Encodes a state, choice or heartbeat message.
+     *
+     * @param message the message to be encoded.
+     * @return the message payload.
+     * @throws IllegalArgumentException if the message is
+     *         not a state, choice or heartbeat.
+     */
+    public static byte[] encode(String message)
+    {
+        for (int opcode = 0; opcode < MESSAGES.length; opcode++)
+        {
+            if(message.equals(MESSAGES[opcode]))
+                return new byte[] {(byte) opcode};
+        }
+
+        throw new IllegalArgumentException("Unknown message: " + message);
+    }
+
+    /**
+     * Decodes a payload into a message. States, choices and
+     * heartbeats are returned as shared strings, a round's
+     * winners as a list of strings and roster snapshots and
+     * changes as roster updates.
+     *
+     * @param bytes the payload to be decoded.
+     * @return the decoded message.
+     * @throws IOException if the payload is malformed.
+     */
+    public static Object decode(byte[] bytes) throws IOException
+    {
+        try
+        {
+            ByteBuffer payload = ByteBuffer.wrap(bytes);
+            byte opcode = payload.get();
+
+            switch(opcode)
+            {
+                case WINNER :
+                    return getNames(payload);
+                case ROSTER :
+                    int version = getVarint(payload);
+
+                    return new RosterUpdate(version, getNames(payload));
+                case ROSTER_JOIN :
+                    return new RosterUpdate(RosterUpdate.JOIN, getVarint(payload),
+                            getString(payload));
+                case ROSTER_LEAVE :
+                    return new RosterUpdate(RosterUpdate.LEAVE, getVarint(payload),
+                            getString(payload));
+                default :
+                    if(opcode > 0 && opcode < MESSAGES.length && MESSAGES[opcode] != null)
+                        return MESSAGES[opcode];
+            }
+
+            throw new IOException("Unknown opcode: " + opcode);
+        }
+        catch(RuntimeException e)
+        {
+            throw new IOException("Malformed message.", e);
+        }
+    }
+
+    private static int sizeOf(byte[] string)
+    {
+        int size = 1;
+
+        for (int value = string.length; (value >>>= 7) != 0; )
+            size++;
+
+        return size + string.length;
+    }
+
+    private static void putString(ByteBuffer payload, byte[] string)
+    {
+        int value = string.length;
+
+        while((value & ~0x7F) != 0)
+        {
+            payload.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        payload.put((byte) value);
+        payload.put(string);
+    }
+
+    private static int getVarint(ByteBuffer payload) throws IOException
+    {
+        int value = 0;
+
+        for (int shift = 0; shift < 32; shift += 7)
+        {
+            byte b = payload.get();
+            value |= (b & 0x7F) << shift;
+
+            if((b & 0x80) == 0)
+                return value;
+        }
+
+        throw new IOException("Malformed varint.");
+    }
+
+    private static List<String> getNames(ByteBuffer payload) throws IOException
+    {
+        int count = getVarint(payload);
+        List<String> players = new ArrayList<>(Math.min(count, payload.remaining()));
+
+        for (int i = 0; i < count; i++)
+            players.add(getString(payload));
+
+        return players;
+    }
+
+    private static String getString(ByteBuffer payload) throws IOException
+    {
+        int length = getVarint(payload);
+
+        if(length < 0 || length > payload.remaining())
+            throw new IOException("Malformed string.");
+
+        String string = new String(payload.array(), payload.position(), length, UTF_8);
+        payload.position(payload.position() + length);
+
+        return string;
+    }
+}
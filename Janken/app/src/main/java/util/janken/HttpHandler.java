@@ -2,13 +2,13 @@ package util.janken;
 
 import android.net.Uri;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -20,13 +20,25 @@ import java.util.Map;
  * <p> Before the class may be used, a system property representing
  * the server's host address must be set at some location.
  *
+ * <p> Every response is read to its end and closed, so that the
+ * underlying connection is kept alive and reused by the next
+ * request rather than opened anew. Several actions may also be
+ * sent in a single request with {@link #sendBatch(List)}.
+ *
  * @see URL
  * @see HttpURLConnection
  * @see Map
  */
 public class HttpHandler
 {
+    private static final int BUFFER_SIZE = 512;
     private String address = System.getProperty(Keys.URL);
+    private String sessionToken;
+
+    static
+    {
+        System.setProperty("http.keepAlive", "true");
+    }
 
     /**
      * Sends an HTTP POST request to the server.
@@ -40,25 +52,12 @@ public class HttpHandler
         try
         {
             URL url = new URL(address);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setReadTimeout(10000);
-            conn.setConnectTimeout(15000);
-            conn.setRequestMethod("POST");
-            conn.setDoInput(false);
-            conn.setDoOutput(true);
+            HttpURLConnection conn = openPost(url, prepareQuery(params));
+            int status = conn.getResponseCode();
+            sessionToken = conn.getHeaderField(Keys.SESSION_HEADER);
+            release(conn, status);
 
-            String query = prepareQuery(params);
-
-            System.out.println("Connecting to " + url.toString() + "...");
-            OutputStream os = conn.getOutputStream();
-            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
-            writer.write(query);
-            writer.flush();
-            writer.close();
-            os.close();
-
-            conn.connect();
-            return conn.getResponseCode();
+            return status;
         }
         catch (IOException e)
         {
@@ -76,29 +75,85 @@ public class HttpHandler
      *         <tt>null</tt> if an exception was caught.
      */
     public Object sendGet(Map<String, String> params)
+    {
+        return sendGet(params, 10000);
+    }
+
+    /**
+     * Sends an HTTP GET request to the server, waiting up to
+     * a given time for the response. Intended for requests
+     * that the server may hold until it has something to send.
+     *
+     * @param params a map of parameter names and values.
+     * @param readTimeout the time in milliseconds to wait for
+     *                    the response.
+     * @return the content of the server's response or
+     *         <tt>null</tt> if an exception was caught.
+     */
+    public Object sendGet(Map<String, String> params, int readTimeout)
     {
         try
         {
             String query = prepareQuery(params);
             URL url = new URL(address + "?" + query);
             HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setReadTimeout(10000);
+            conn.setReadTimeout(readTimeout);
             conn.setConnectTimeout(15000);
             conn.setRequestMethod("GET");
+            conn.setRequestProperty("Connection", "keep-alive");
             conn.setDoInput(true);
 
             conn.connect();
 
-            ObjectInputStream in = new ObjectInputStream(conn.getInputStream());
+            return readObject(conn);
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace(System.err);
+        }
+
+        return null;
+    }
 
-            try
-            {
-                return in.readObject();
-            }
-            catch (ClassNotFoundException e)
+    /**
+     * Sends several actions to the server in a single HTTP POST
+     * request, which the server performs in order. Logging in and
+     * waiting for lobby changes cannot be batched.
+     *
+     * @param operations a list holding a map of parameter names
+     *                   and values for every action.
+     * @return a list holding the result of every action, in order,
+     *         or <tt>null</tt> if the batch was refused or an
+     *         exception was caught. The result of an action that
+     *         would have been sent with HTTP POST is its response
+     *         code, and that of any other action is the content it
+     *         would have been answered with.
+     */
+    public List<Object> sendBatch(List<Map<String, String>> operations)
+    {
+        Uri.Builder builder = new Uri.Builder();
+        builder.appendQueryParameter(Keys.ACTION, Keys.BATCH);
+
+        for (Map<String, String> operation : operations)
+            builder.appendQueryParameter(Keys.OPERATION, prepareQuery(operation));
+
+        try
+        {
+            HttpURLConnection conn = openPost(new URL(address),
+                    builder.build().getEncodedQuery());
+            int status = conn.getResponseCode();
+
+            if(status != HttpURLConnection.HTTP_OK)
             {
-                e.printStackTrace(System.err);
+                release(conn, status);
+
+                return null;
             }
+
+            Object results = readObject(conn);
+
+            if(results instanceof List)
+                return (List<Object>) results;
         }
         catch (IOException e)
         {
@@ -108,6 +163,92 @@ public class HttpHandler
         return null;
     }
 
+    /**
+     * Retrieves the session token issued in response
+     * to the latest HTTP POST request.
+     *
+     * @return the session token or <tt>null</tt> if
+     *         none was issued.
+     */
+    public String getSessionToken()
+    {
+        return sessionToken;
+    }
+
+    private HttpURLConnection openPost(URL url, String query) throws IOException
+    {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setReadTimeout(10000);
+        conn.setConnectTimeout(15000);
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Connection", "keep-alive");
+        conn.setDoInput(true);
+        conn.setDoOutput(true);
+
+        byte[] body = query.getBytes("UTF-8");
+        conn.setFixedLengthStreamingMode(body.length);
+
+        System.out.println("Connecting to " + url.toString() + "...");
+        OutputStream os = conn.getOutputStream();
+        os.write(body);
+        os.flush();
+        os.close();
+
+        return conn;
+    }
+
+    private Object readObject(HttpURLConnection conn) throws IOException
+    {
+        InputStream stream = conn.getInputStream();
+
+        try
+        {
+            ObjectInputStream in = new ObjectInputStream(stream);
+            Object content = in.readObject();
+            drain(stream);
+
+            return content;
+        }
+        catch (ClassNotFoundException e)
+        {
+            e.printStackTrace(System.err);
+        }
+        finally
+        {
+            stream.close();
+        }
+
+        return null;
+    }
+
+    private void release(HttpURLConnection conn, int status)
+    {
+        // A response body left unread would keep its connection from being reused.
+        try
+        {
+            InputStream stream = status >= 400 ? conn.getErrorStream() : conn.getInputStream();
+
+            if(stream != null)
+            {
+                drain(stream);
+                stream.close();
+            }
+        }
+        catch (IOException e)
+        {
+            conn.disconnect();
+        }
+    }
+
+    private void drain(InputStream stream) throws IOException
+    {
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        while(stream.read(buffer) != -1)
+        {
+        }
+    }
+
     private String prepareQuery(Map<String, String> params)
     {
         Uri.Builder builder = new Uri.Builder();
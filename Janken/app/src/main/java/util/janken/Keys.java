@@ -17,16 +17,68 @@ public class Keys
     public static final String USERNAME = "username";
     /** {@value #PASSWORD} HTTP method parameter name of a user password.  */
     public static final String PASSWORD = "password";
+    /** {@value #SESSION_TOKEN} HTTP method parameter name of a session token, also specifying the client's token.  */
+    public static final String SESSION_TOKEN = "token";
+    /** {@value #SESSION_HEADER} HTTP response header holding the session token issued at login.  */
+    public static final String SESSION_HEADER = "Session-Token";
     /** {@value #CREATE_INSTANCE} HTTP method parameter value for the action "create instance".  */
     public static final String CREATE_INSTANCE = "create";
     /** {@value #ACCOUNT} HTTP method parameter value for the action "create/validate account".  */
     public static final String ACCOUNT = "account";
+    /** {@value #LOGOUT} HTTP method parameter value for the action "log out".  */
+    public static final String LOGOUT = "logout";
+    /** {@value #BATCH} HTTP method parameter value for the action "run several actions".  */
+    public static final String BATCH = "batch";
+    /** {@value #OPERATION} HTTP method parameter name of the URL-encoded parameters of one batched action.  */
+    public static final String OPERATION = "op";
     /** {@value #JOIN_INSTANCE} HTTP method parameter value for the action "join instance".  */
     public static final String JOIN_INSTANCE = "join";
     /** {@value #GET_INSTANCES} HTTP method parameter value for the action "get instance".  */
     public static final String GET_INSTANCES = "instances";
+    /** {@value #QUICK_JOIN} HTTP method parameter value for the action "quick join".  */
+    public static final String QUICK_JOIN = "quickjoin";
+    /** {@value #PORT} Response key holding the port of a game instance to join.  */
+    public static final String PORT = "port";
+    /** {@value #BROWSE_INSTANCES} HTTP method parameter value for the action "browse instances".  */
+    public static final String BROWSE_INSTANCES = "browse";
+    /** {@value #CURSOR} HTTP method parameter name of a page cursor, and the page key holding the next one.  */
+    public static final String CURSOR = "cursor";
+    /** {@value #LIMIT} HTTP method parameter name of the most number of instances on a page.  */
+    public static final String LIMIT = "limit";
+    /** {@value #MIN_FREE} HTTP method parameter name of the least number of free slots.  */
+    public static final String MIN_FREE = "minFree";
+    /** {@value #MAX_FREE} HTTP method parameter name of the most number of free slots.  */
+    public static final String MAX_FREE = "maxFree";
+    /** {@value #PREFIX} HTTP method parameter name of a game instance name prefix.  */
+    public static final String PREFIX = "prefix";
+    /** {@value #STATE} HTTP method parameter name of a game instance state.  */
+    public static final String STATE = "state";
+    /** {@value #STATE_PLAYING} HTTP method parameter value for instances in progress.  */
+    public static final String STATE_PLAYING = "playing";
+    /** {@value #STATE_WAITING} HTTP method parameter value for instances waiting for players.  */
+    public static final String STATE_WAITING = "waiting";
+    /** {@value #PAGE_INSTANCES} Page key holding the names of the instances on a page.  */
+    public static final String PAGE_INSTANCES = "instances";
+    /** {@value #PAGE_OPEN_SLOTS} Page key holding the free slots of the instances on a page.  */
+    public static final String PAGE_OPEN_SLOTS = "openSlots";
+    /** {@value #GET_UPDATES} HTTP method parameter value for the action "wait for lobby changes".  */
+    public static final String GET_UPDATES = "updates";
+    /** {@value #VERSION} HTTP method parameter name of the last lobby version seen, also the page and feed key holding the lobby's version.  */
+    public static final String VERSION = "version";
+    /** {@value #CHANGES} Feed key holding the free slots of every changed instance, where -1 means removed.  */
+    public static final String CHANGES = "changes";
+    /** {@value #RESET} Feed key set when the instances must be listed again.  */
+    public static final String RESET = "reset";
     /** {@value #GET_STATS} HTTP method parameter value for the action "get stats".  */
     public static final String GET_STATS = "stats";
+    /** {@value #GET_TOP} HTTP method parameter value for the action "get top players".  */
+    public static final String GET_TOP = "top";
+    /** {@value #GET_RANK} HTTP method parameter value for the action "get rank".  */
+    public static final String GET_RANK = "rank";
+    /** {@value #RANK} Rank key holding the player's rank.  */
+    public static final String RANK = "rank";
+    /** {@value #SCORE} Rank key holding the player's total score.  */
+    public static final String SCORE = "score";
     /** {@value #READY_MESSAGE} Server message to engage the "ready" state.  */
     public static final String READY_MESSAGE = "ready";
     /** {@value #WAIT_MESSAGE} Server message to engage or interpret the "wait" state.  */
@@ -37,12 +89,26 @@ public class Keys
     public static final String PAPER = "paper";
     /** {@value #SCISSORS} Server message to represent the choice "scissors".  */
     public static final String SCISSORS = "scissors";
+    /** {@value #SPOCK} Server message to represent the choice "Spock".  */
+    public static final String SPOCK = "spock";
+    /** {@value #LIZARD} Server message to represent the choice "lizard".  */
+    public static final String LIZARD = "lizard";
     /** {@value #CONNECTED_MESSAGE} Server message to interpret the "connected" state.  */
     public static final String CONNECTED_MESSAGE = "connected";
     /** {@value #PLAYING_MESSAGE} Server message to interpret the "playing" state.  */
     public static final String PLAYING_MESSAGE = "playing";
+    /** {@value #WINNER_MESSAGE} Stands in for the server's announcement of a round's winners.  */
+    public static final String WINNER_MESSAGE = "winner";
+    /** {@value #EXPIRED_MESSAGE} Server message telling a player that they missed a deadline.  */
+    public static final String EXPIRED_MESSAGE = "expired";
     /** {@value #HEARTBEAT} Represents a client connection heartbeat.  */
     public static final String HEARTBEAT = "doki";
-    /** {@value #MAX_PLAYERS} The maximum number of players for any given game instance.  */
+    /** {@value #CAPACITY} Response key holding the number of players a game instance can hold.  */
+    public static final String CAPACITY = "capacity";
+    /** {@value #MAX_PLAYERS} The number of players a game instance holds unless the server says otherwise.  */
     public static final int MAX_PLAYERS = 4;
+    /** {@value #CHOICES} Response key holding the number of choices in a game instance's rules, taken in the order rock, paper, scissors, Spock and lizard.  */
+    public static final String CHOICES = "choices";
+    /** {@value #CLASSIC_CHOICES} The number of choices a game instance offers unless the server says otherwise.  */
+    public static final int CLASSIC_CHOICES = 3;
 }
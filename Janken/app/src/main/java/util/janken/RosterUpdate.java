@@ -0,0 +1,108 @@
+package util.janken;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class represents an update to the roster of a game
+ * instance, as received on the secondary connection. An update
+ * is either a snapshot of the full roster, or a change in which
+ * a single player joins or leaves.
+ *
+ * <p> Every update carries the version of the roster that it
+ * results in. A change applies only to the version directly
+ * before its own, so older changes are discarded.
+ */
+public class RosterUpdate
+{
+    /** A snapshot of the full roster. */
+    public static final int SNAPSHOT = 0;
+    /** A single player joining the roster. */
+    public static final int JOIN = 1;
+    /** A single player leaving the roster. */
+    public static final int LEAVE = 2;
+    private final int type;
+    private final int version;
+    private final List<String> players;
+
+    /**
+     * Constructs a roster snapshot.
+     *
+     * @param version the version of the roster.
+     * @param players the names of all connected players.
+     */
+    public RosterUpdate(int version, List<String> players)
+    {
+        this.type = SNAPSHOT;
+        this.version = version;
+        this.players = players;
+    }
+
+    /**
+     * Constructs a roster change.
+     *
+     * @param type either {@link #JOIN} or {@link #LEAVE}.
+     * @param version the version of the roster after the change.
+     * @param player the name of the joining or leaving player.
+     */
+    public RosterUpdate(int type, int version, String player)
+    {
+        this.type = type;
+        this.version = version;
+        this.players = Collections.singletonList(player);
+    }
+
+    /**
+     * Retrieves the type of the update.
+     *
+     * @return {@link #SNAPSHOT}, {@link #JOIN} or {@link #LEAVE}.
+     */
+    public int getType()
+    {
+        return type;
+    }
+
+    /**
+     * Retrieves the version of the roster that the update results in.
+     *
+     * @return the roster version.
+     */
+    public int getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Retrieves the players named by the update: every connected
+     * player for a snapshot, or the joining or leaving player
+     * for a change.
+     *
+     * @return a list of the players' names.
+     */
+    public List<String> getPlayers()
+    {
+        return players;
+    }
+
+    /**
+     * Applies the update to a list of player names.
+     *
+     * @param roster the list to update.
+     */
+    public void applyTo(List<String> roster)
+    {
+        switch(type)
+        {
+            case SNAPSHOT :
+                roster.clear();
+                roster.addAll(players);
+                break;
+            case JOIN :
+                roster.add(players.get(0));
+                break;
+            case LEAVE :
+                roster.remove(players.get(0));
+                break;
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package util.janken;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.UnknownHostException;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -15,16 +17,32 @@ import java.util.List;
  * as well as to release internal resources. The class encapsulates
  * the input and output streams between client and server sockets.
  *
+ * <p> All game instances on the server share one port. Every message
+ * is sent as a length-prefixed frame, and the first frame on a new
+ * connection is a handshake that names the game instance and the
+ * player, presents the player's session token and tells the server
+ * whether the connection is the player's primary or secondary
+ * connection. Payloads are
+ * encoded with the compact binary codec shared with the server.
+ *
+ * <p> The secondary connection keeps a copy of the instance's roster.
+ * The server sends a snapshot once, when the connection is opened,
+ * and only the players that join or leave after that.
+ *
  * @see Socket
- * @see ObjectInputStream
- * @see ObjectOutputStream
+ * @see GameCodec
+ * @see DataInputStream
+ * @see DataOutputStream
  */
 public class ServerConnection
 {
-    private ObjectInputStream in;
-    private ObjectOutputStream out;
+    private DataInputStream in;
+    private DataOutputStream out;
     private boolean isConnected = false;
     private final int TIMEOUT = 1000;
+    private final List<String> players = new ArrayList<>();
+    private int rosterVersion = -1;
+    private List<String> winners = new ArrayList<>();
 
     /**
      * Constructs an instance of this class and creates a socket
@@ -33,17 +51,26 @@ public class ServerConnection
      * unsuccessful.
      *
      * @param host the host address of the server.
-     * @param port the port of some game instance on the server.
+     * @param port the game port of the server.
+     * @param instanceName the name of the game instance to join.
+     * @param playerName the name of the joining player.
+     * @param token the session token issued at login.
+     * @param utility <tt>true</tt> if this is the secondary connection
+     *                and <tt>false</tt> if it is the primary connection.
      */
-    public ServerConnection(String host, int port)
+    public ServerConnection(String host, int port, String instanceName, String playerName,
+                            String token, boolean utility)
     {
         try
         {
             System.out.println("Attempting to establish connection...");
             Socket clientSocket = new Socket();
             clientSocket.connect(new InetSocketAddress(host, port), TIMEOUT);
-            out = new ObjectOutputStream(clientSocket.getOutputStream());
-            in = new ObjectInputStream(clientSocket.getInputStream());
+            clientSocket.setTcpNoDelay(true);
+            out = new DataOutputStream(new BufferedOutputStream(clientSocket.getOutputStream()));
+            in = new DataInputStream(new BufferedInputStream(clientSocket.getInputStream()));
+            writeFrame(GameCodec.encodeHandshake(instanceName, playerName, token, utility));
+
             isConnected = true;
             System.out.println("Connection established!");
         }
@@ -89,8 +116,7 @@ public class ServerConnection
     {
         try
         {
-            out.writeObject(message);
-            out.flush();
+            writeFrame(GameCodec.encode(message));
         }
         catch (IOException e)
         {
@@ -101,6 +127,9 @@ public class ServerConnection
     /**
      * Waits for a message string from the server.
      * This method blocks until input is available.
+     * An announcement of a round's winners is returned as
+     * {@value Keys#WINNER_MESSAGE}, and the winners are then
+     * available from {@link #getWinners()}.
      *
      * @return the received message or an empty string
      *         if an exception was caught.
@@ -111,11 +140,20 @@ public class ServerConnection
 
         try
         {
-            message = (String) in.readObject();
+            Object frame = readFrame();
+
+            if(frame instanceof List)
+            {
+                winners = (List<String>) frame;
+
+                return Keys.WINNER_MESSAGE;
+            }
+
+            message = (String) frame;
 
             return message;
         }
-        catch(IOException | ClassNotFoundException e)
+        catch(IOException | ClassCastException e)
         {
             e.printStackTrace();
         }
@@ -124,29 +162,100 @@ public class ServerConnection
     }
 
     /**
-     * Waits for a list of players from the server.
-     * This method blocks until input is available.
+     * Waits for the list of players to change.
+     * This method blocks until a change is received.
      *
-     * @return the received message or an empty list
-     *         if an exception was caught. The received
-     *         message may be an empty list even in
-     *         the event of successful execution.
+     * @return the updated list of players or an empty list
+     *         if an exception was caught. The list may be
+     *         empty even in the event of successful execution.
      * @see List
      */
     public List<String> waitForPlayerlist()
     {
-        List<String> players = new ArrayList<>();
+        if(waitForRosterUpdate() == null)
+            return new ArrayList<>();
 
+        return getPlayerlist();
+    }
+
+    /**
+     * Waits for an update to the list of players and applies it
+     * to this connection's copy of the list. Updates that are
+     * already part of the copy are skipped. This method blocks
+     * until an update has been applied.
+     *
+     * @return the applied update or <tt>null</tt>
+     *         if an exception was caught.
+     * @see RosterUpdate
+     */
+    public RosterUpdate waitForRosterUpdate()
+    {
         try
         {
-            players = (List<String>) in.readObject();
+            while(true)
+            {
+                RosterUpdate update = (RosterUpdate) readFrame();
+
+                synchronized(players)
+                {
+                    if(update.getType() == RosterUpdate.SNAPSHOT
+                            || update.getVersion() == rosterVersion + 1)
+                    {
+                        update.applyTo(players);
+                        rosterVersion = update.getVersion();
+
+                        return update;
+                    }
+                }
+            }
         }
-        catch(IOException | ClassNotFoundException e)
+        catch(IOException | ClassCastException e)
         {
             e.printStackTrace();
         }
 
-        return players;
+        return null;
+    }
+
+    /**
+     * Retrieves the winners of the latest round, of which there
+     * are several if the round ended in a shared win.
+     *
+     * @return the names of the winners.
+     * @see List
+     */
+    public List<String> getWinners()
+    {
+        return new ArrayList<>(winners);
+    }
+
+    /**
+     * Retrieves this connection's copy of the list of players.
+     *
+     * @return a copy of the list of players.
+     * @see List
+     */
+    public List<String> getPlayerlist()
+    {
+        synchronized(players)
+        {
+            return new ArrayList<>(players);
+        }
+    }
+
+    private synchronized void writeFrame(byte[] payload) throws IOException
+    {
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.flush();
+    }
+
+    private Object readFrame() throws IOException
+    {
+        byte[] payload = new byte[in.readInt()];
+        in.readFully(payload);
+
+        return GameCodec.decode(payload);
     }
 
     /**
@@ -3,17 +3,41 @@ package janken.entities;
 import java.io.Serializable;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 
 /**
  * This is a player entity class for use with JPA,
  * and represents a player. Players are identified
  * by their usernames alone.
  * 
+ * <p> Scores are incremented by bulk update queries, so
+ * that an increment is a single statement that the database
+ * applies atomically, rather than a read followed by a write.
+ * 
  * @author Rikard Nordström
  */
 @Entity
+@NamedQueries({
+    @NamedQuery(name = Player.INCREMENT_SCORE, query = "UPDATE Player p "
+            + "SET p.totalScore = p.totalScore + :amount WHERE p.playerName = :name"),
+    @NamedQuery(name = Player.INCREMENT_SCORES, query = "UPDATE Player p "
+            + "SET p.totalScore = p.totalScore + :amount WHERE p.playerName IN :names"),
+    @NamedQuery(name = Player.FIND_PLAYERS, query = "SELECT p FROM Player p "
+            + "WHERE p.playerName IN :names"),
+    @NamedQuery(name = Player.FIND_ALL_SCORES, query = "SELECT p.playerName, p.totalScore "
+            + "FROM Player p")
+})
 public class Player implements Serializable 
 {
+    /** The name of the query that increments a single player's score. */
+    public static final String INCREMENT_SCORE = "Player.incrementScore";
+    /** The name of the query that increments several players' scores. */
+    public static final String INCREMENT_SCORES = "Player.incrementScores";
+    /** The name of the query that retrieves several players. */
+    public static final String FIND_PLAYERS = "Player.findPlayers";
+    /** The name of the query that retrieves every player's score. */
+    public static final String FIND_ALL_SCORES = "Player.findAllScores";
     private static final long serialVersionUID = 1L;
     @Id
     private String playerName;
@@ -49,9 +73,10 @@ public class Player implements Serializable
     }
 
     /**
-     * Retrieves the player's password.
+     * Retrieves the hash of the player's password.
      * 
-     * @return the player's password.
+     * @return the player's password hash.
+     * @see janken.integration.PasswordHasher
      */
     public String getPassword() 
     {
@@ -59,9 +84,10 @@ public class Player implements Serializable
     }
 
     /**
-     * Sets the player's password.
+     * Sets the hash of the player's password.
      * 
-     * @param password the player's password.
+     * @param password the player's password hash.
+     * @see janken.integration.PasswordHasher
      */
     public void setPassword(String password) 
     {
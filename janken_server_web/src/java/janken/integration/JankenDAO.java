@@ -2,19 +2,41 @@ package janken.integration;
 
 import janken.entities.Player;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import javax.annotation.Resource;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 /**
  * This class manages all communication with the game's
  * database. It contains methods to retrieve scores for
  * all players or for a specific player and to update a
  * player's score, as well as adding a player to the
- * database or checking for their existence/validity.
+ * database, checking for their existence and retrieving
+ * or replacing their password hash.
+ * 
+ * <p> Passwords are only ever stored as hashes, which
+ * are made and verified by the caller, outside of any
+ * transaction.
+ * 
+ * <p> Scores should be raised with the increment methods,
+ * which update the database in a single statement and never
+ * lose an increment to a concurrent update of the same player.
+ * 
+ * <p> Players are read through a cache that is shared by every
+ * instance of this class, so that logins and score lookups for
+ * recently seen players avoid the database. Every method that
+ * writes a player invalidates it, both immediately and once the
+ * write has been committed or rolled back.
  * 
  * @author Rikard Nordström
  */
@@ -22,8 +44,13 @@ import javax.persistence.PersistenceContext;
 @Stateless
 public class JankenDAO 
 {
+    private static final int QUERY_CHUNK_SIZE = 1000;
+    private static final int PLAYER_CACHE_SIZE = 10000;
+    private static final PlayerCache PLAYER_CACHE = new PlayerCache(PLAYER_CACHE_SIZE);
     @PersistenceContext(unitName = "janken_server_webPU")
     private EntityManager em;
+    @Resource
+    private TransactionSynchronizationRegistry transactions;
     
     /**
      * Retrieves the scores of all connected players.
@@ -37,20 +64,87 @@ public class JankenDAO
     public HashMap<String, Integer> getPlayerScores(ArrayList<String> playerNames)
     {
         HashMap<String, Integer> playerScores = new HashMap<>();
+        int[] scores = getScores(playerNames);
         
-        for (String name : playerNames)
+        for (int i = 0; i < scores.length; i++)
         {
-            if(name != null)
-            {
-                Player player = em.find(Player.class, name);
+            if(playerNames.get(i) != null)
+                playerScores.put(playerNames.get(i), scores[i]);
+        }
+        
+        return playerScores;
+    }
+    
+    /**
+     * Retrieves the scores of several players. Players that are
+     * not cached are looked up in batches of at most
+     * {@value #QUERY_CHUNK_SIZE} names, using a single query
+     * per batch.
+     * 
+     * @param playerNames the players' usernames.
+     * @return the score of each player, in the same order as the
+     *         names. Players that do not exist have a score of 0.
+     * @see List
+     */
+    public int[] getScores(List<String> playerNames)
+    {
+        ArrayList<String> names = new ArrayList<>();
+        HashMap<String, Integer> found = new HashMap<>();
+        int[] scores = new int[playerNames.size()];
+        
+        for (String name : new LinkedHashSet<>(playerNames))
+        {
+            Player player = name == null ? null : PLAYER_CACHE.get(name);
+            
+            if(player != null)
+                found.put(name, player.getTotalScore());
+            else if(name != null)
+                names.add(name);
+        }
+        
+        for (int from = 0; from < names.size(); from += QUERY_CHUNK_SIZE)
+        {
+            List<String> chunk = names.subList(from, 
+                    Math.min(names.size(), from + QUERY_CHUNK_SIZE));
+            long stamp = PLAYER_CACHE.getStamp();
+            List<Player> players = em.createNamedQuery(Player.FIND_PLAYERS, Player.class)
+                    .setParameter("names", chunk)
+                    .getResultList();
             
-                if(player != null)
-                    playerScores.put(name, player.getTotalScore());
-                else
-                    playerScores.put(name, 0);
+            for (Player player : players)
+            {
+                found.put(player.getPlayerName(), player.getTotalScore());
+                PLAYER_CACHE.put(player, stamp);
             }
         }
         
+        for (int i = 0; i < scores.length; i++)
+        {
+            Integer score = found.get(playerNames.get(i));
+            
+            if(score != null)
+                scores[i] = score;
+        }
+        
+        return scores;
+    }
+    
+    /**
+     * Retrieves the scores of every player in the database,
+     * using a single query.
+     * 
+     * @return a map of player names and their corresponding score.
+     * @see HashMap
+     */
+    public HashMap<String, Integer> getAllScores()
+    {
+        HashMap<String, Integer> playerScores = new HashMap<>();
+        List<Object[]> rows = em.createNamedQuery(Player.FIND_ALL_SCORES, Object[].class)
+                .getResultList();
+        
+        for (Object[] row : rows)
+            playerScores.put((String) row[0], ((Number) row[1]).intValue());
+        
         return playerScores;
     }
     
@@ -58,16 +152,18 @@ public class JankenDAO
      * Adds a player to the database.
      * 
      * @param name the player's username.
-     * @param password the player's password.
+     * @param passwordHash the hash of the player's password.
+     * @see PasswordHasher
      */
-    public void addPlayer(String name, String password)
+    public void addPlayer(String name, String passwordHash)
     {
         Player player = new Player();
         player.setPlayerName(name);
-        player.setPassword(password);
+        player.setPassword(passwordHash);
         player.setTotalScore(0);
         
         em.persist(player);
+        invalidate(Collections.singletonList(name));
     }
     
     /**
@@ -79,7 +175,7 @@ public class JankenDAO
      */
     public boolean playerExists(String name)
     {
-        Player player = em.find(Player.class, name);
+        Player player = find(name);
         
         if(player != null)
             return true;
@@ -88,21 +184,37 @@ public class JankenDAO
     }
     
     /**
-     * Validates a player's login details on the server.
+     * Retrieves the hash of a player's password, against
+     * which the player's login details are verified.
      * 
      * @param name the player's username.
-     * @param password the player's password.
-     * @return <tt>true</tt> if validation is successful
-     *         and <tt>false</tt> otherwise.
+     * @return the player's password hash, or <tt>null</tt>
+     *         if there is no such player.
+     * @see PasswordHasher
      */
-    public boolean validate(String name, String password)
+    public String getPasswordHash(String name)
     {
-        Player player = em.find(Player.class, name);
+        Player player = find(name);
         
-        if(player != null && player.getPassword().equals(password))
-            return true;
+        return player == null ? null : player.getPassword();
+    }
+    
+    /**
+     * Replaces the hash of a player's password.
+     * 
+     * @param name the player's username.
+     * @param passwordHash the new hash of the player's password.
+     * @see PasswordHasher
+     */
+    public void updatePasswordHash(String name, String passwordHash)
+    {
+        Player player = em.find(Player.class, name);
         
-        return false;
+        if(player != null)
+        {
+            player.setPassword(passwordHash);
+            invalidate(Collections.singletonList(name));
+        }
     }
     
     /**
@@ -116,7 +228,50 @@ public class JankenDAO
         Player player = em.find(Player.class, name);
         
         if(player != null)
+        {
             player.setTotalScore(score);
+            invalidate(Collections.singletonList(name));
+        }
+    }
+    
+    /**
+     * Increments a player's score on the server.
+     * 
+     * @param name the player's username.
+     * @param amount the amount to add to the player's score.
+     * @return <tt>true</tt> if the player's score was updated
+     *         and <tt>false</tt> if there is no such player.
+     */
+    public boolean incrementPlayerScore(String name, int amount)
+    {
+        invalidate(Collections.singletonList(name));
+        
+        return em.createNamedQuery(Player.INCREMENT_SCORE)
+                .setParameter("amount", amount)
+                .setParameter("name", name)
+                .executeUpdate() > 0;
+    }
+    
+    /**
+     * Increments the scores of several players on the server
+     * in a single statement.
+     * 
+     * @param names the players' usernames.
+     * @param amount the amount to add to each player's score.
+     * @return the number of players whose scores were updated.
+     * @see Collection
+     */
+    public int incrementPlayerScores(Collection<String> names, int amount)
+    {
+        if(names.isEmpty())
+            return 0;
+        
+        invalidate(names);
+        
+        return em.createNamedQuery(Player.INCREMENT_SCORES)
+                .setParameter("amount", amount)
+                .setParameter("names", names)
+                .executeUpdate();
     }
     
     /**
@@ -128,7 +283,7 @@ public class JankenDAO
      */
     public int getPlayerScore(String name)
     {
-        Player player = em.find(Player.class, name);
+        Player player = find(name);
         int score = 0;
         
         if(player != null)
@@ -136,4 +291,55 @@ public class JankenDAO
         
         return score;
     }
+    
+    /**
+     * Retrieves the cache that players are read through.
+     * 
+     * @return the player cache.
+     * @see PlayerCache
+     */
+    public PlayerCache getPlayerCache()
+    {
+        return PLAYER_CACHE;
+    }
+    
+    private Player find(String name)
+    {
+        if(name == null)
+            return null;
+        
+        Player player = PLAYER_CACHE.get(name);
+        
+        if(player == null)
+        {
+            long stamp = PLAYER_CACHE.getStamp();
+            player = em.find(Player.class, name);
+            
+            if(player != null)
+                PLAYER_CACHE.put(player, stamp);
+        }
+        
+        return player;
+    }
+    
+    private void invalidate(Collection<String> names)
+    {
+        final ArrayList<String> written = new ArrayList<>(names);
+        
+        PLAYER_CACHE.invalidateAll(written);
+        // Readers may cache the old row until the write is committed.
+        transactions.registerInterposedSynchronization(new Synchronization()
+        {
+            @Override
+            public void beforeCompletion()
+            {
+            }
+
+            @Override
+            public void afterCompletion(int status)
+            {
+                PLAYER_CACHE.invalidateAll(written);
+            }
+        });
+    }
 }
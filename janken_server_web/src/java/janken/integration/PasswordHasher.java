@@ -0,0 +1,198 @@
+package janken.integration;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Base64;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * This class hashes and verifies player passwords with PBKDF2,
+ * so that the database never holds a password in plain text.
+ * Hashing is deliberately slow, and should not be done on
+ * threads that serve other requests.
+ *
+ * <p> The cost of a hash is its number of iterations, which is
+ * tuned at startup so that a single hash takes roughly a target
+ * time on the running machine. Every hash records its own cost,
+ * salt and result, separated by {@value #SEPARATOR}, so that
+ * hashes made at an older cost can still be verified, and may be
+ * replaced once their password is known to be right. Passwords
+ * stored before hashing was introduced are verified as they are,
+ * and always need to be rehashed.
+ *
+ * @author Rikard Nordström
+ * @see JankenDAO
+ */
+public class PasswordHasher
+{
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String PREFIX = "pbkdf2";
+    private static final String SEPARATOR = "$";
+    private static final int SALT_SIZE = 16;
+    private static final int HASH_BITS = 256;
+    private static final int MIN_ITERATIONS = 10000;
+    private static final int MAX_ITERATIONS = 10000000;
+    private final SecureRandom random = new SecureRandom();
+    private final int iterations;
+
+    /**
+     * Creates a password hasher with a fixed cost.
+     *
+     * @param iterations the number of iterations per hash, which
+     *                   is raised to at least {@value #MIN_ITERATIONS}.
+     */
+    public PasswordHasher(int iterations)
+    {
+        this.iterations = Math.max(MIN_ITERATIONS, Math.min(MAX_ITERATIONS, iterations));
+    }
+
+    /**
+     * Creates a password hasher whose cost is tuned so that
+     * a single hash takes roughly the target time.
+     *
+     * @param targetMillis the target time in milliseconds.
+     * @return the password hasher.
+     */
+    public static PasswordHasher calibrate(long targetMillis)
+    {
+        char[] sample = "calibration".toCharArray();
+        byte[] salt = new byte[SALT_SIZE];
+        long elapsed = Long.MAX_VALUE;
+
+        // The fastest of a few rounds is taken, since the first only warm up the compiler.
+        for (int round = 0; round < 3; round++)
+        {
+            long start = System.nanoTime();
+            derive(sample, salt, MIN_ITERATIONS);
+            elapsed = Math.min(elapsed, System.nanoTime() - start);
+        }
+
+        long iterations = MIN_ITERATIONS * targetMillis * 1000000 / Math.max(1, elapsed);
+        PasswordHasher hasher =
+                new PasswordHasher((int) Math.min(MAX_ITERATIONS, iterations));
+
+        System.out.println("Passwords will be hashed with " + hasher.iterations
+                + " iterations.");
+
+        return hasher;
+    }
+
+    /**
+     * Hashes a password with a new random salt.
+     *
+     * @param password the password.
+     * @return the hash, including its cost and salt.
+     */
+    public String hash(String password)
+    {
+        byte[] salt = new byte[SALT_SIZE];
+        random.nextBytes(salt);
+
+        return PREFIX + SEPARATOR + iterations
+                + SEPARATOR + Base64.getEncoder().encodeToString(salt)
+                + SEPARATOR + Base64.getEncoder().encodeToString(
+                        derive(password.toCharArray(), salt, iterations));
+    }
+
+    /**
+     * Verifies a password against a stored hash, taking the
+     * same time whichever of its bytes are wrong.
+     *
+     * @param password the password.
+     * @param stored the stored hash, or a password stored
+     *               before hashing was introduced.
+     * @return <tt>true</tt> if the password is right
+     *         and <tt>false</tt> otherwise.
+     */
+    public boolean verify(String password, String stored)
+    {
+        if(password == null || stored == null)
+            return false;
+
+        String[] parts = split(stored);
+
+        if(parts == null)
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8),
+                    stored.getBytes(StandardCharsets.UTF_8));
+
+        try
+        {
+            byte[] salt = Base64.getDecoder().decode(parts[2]);
+            byte[] expected = Base64.getDecoder().decode(parts[3]);
+
+            return MessageDigest.isEqual(expected,
+                    derive(password.toCharArray(), salt, Integer.parseInt(parts[1])));
+        }
+        catch(IllegalArgumentException iae)
+        {
+            System.err.println("Malformed password hash: " + iae.toString());
+
+            return false;
+        }
+    }
+
+    /**
+     * Used to check if a stored hash should be replaced by
+     * one made at the current cost.
+     *
+     * @param stored the stored hash.
+     * @return <tt>true</tt> if the hash was made at a lower cost, or
+     *         is a password stored before hashing was introduced, and
+     *         <tt>false</tt> otherwise.
+     */
+    public boolean needsRehash(String stored)
+    {
+        String[] parts = split(stored);
+
+        try
+        {
+            return parts == null || Integer.parseInt(parts[1]) < iterations;
+        }
+        catch(NumberFormatException nfe)
+        {
+            return true;
+        }
+    }
+
+    /**
+     * Retrieves the number of iterations per hash.
+     *
+     * @return the number of iterations.
+     */
+    public int getIterations()
+    {
+        return iterations;
+    }
+
+    private static String[] split(String stored)
+    {
+        if(stored == null || !stored.startsWith(PREFIX + SEPARATOR))
+            return null;
+
+        String[] parts = stored.split("\\" + SEPARATOR);
+
+        return parts.length == 4 ? parts : null;
+    }
+
+    private static byte[] derive(char[] password, byte[] salt, int iterations)
+    {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, HASH_BITS);
+
+        try
+        {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        }
+        catch(NoSuchAlgorithmException | InvalidKeySpecException e)
+        {
+            throw new IllegalStateException("Could not hash with " + ALGORITHM + ".", e);
+        }
+        finally
+        {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package janken.integration;
+
+import janken.entities.Player;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class holds recently read players in memory, so that
+ * repeated logins and score lookups need not reach the database.
+ * It holds at most a fixed number of players, and evicts the
+ * least recently used player to make room for another.
+ *
+ * <p> Players are cached as copies that must not be modified.
+ * Writers invalidate the players they change. A reader that
+ * started before an invalidation may not cache what it read,
+ * since it may have read the row as it was before the write.
+ *
+ * @author Rikard Nordström
+ * @see JankenDAO
+ */
+public class PlayerCache
+{
+    private final LinkedHashMap<String, Player> players;
+    private long invalidations;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param capacity the most players that may be cached.
+     */
+    public PlayerCache(final int capacity)
+    {
+        players = new LinkedHashMap<String, Player>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Player> eldest)
+            {
+                if(size() > capacity)
+                {
+                    evictions++;
+
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Retrieves a cached player and counts the lookup
+     * as a hit or a miss.
+     *
+     * @param playerName the player's username.
+     * @return the cached player, or <tt>null</tt> if
+     *         the player is not cached.
+     * @see Player
+     */
+    public synchronized Player get(String playerName)
+    {
+        Player player = players.get(playerName);
+
+        if(player != null)
+            hits++;
+        else
+            misses++;
+
+        return player;
+    }
+
+    /**
+     * Retrieves a stamp to be given to {@link #put(Player, long)}
+     * once a player has been read from the database. It must be
+     * taken before the player is read.
+     *
+     * @return the stamp.
+     */
+    public synchronized long getStamp()
+    {
+        return invalidations;
+    }
+
+    /**
+     * Caches a copy of a player that was read from the database,
+     * unless any player has been invalidated since the read began.
+     *
+     * @param player the player.
+     * @param stamp the stamp that was taken before the read.
+     * @see Player
+     */
+    public synchronized void put(Player player, long stamp)
+    {
+        if(stamp != invalidations)
+            return;
+
+        Player copy = new Player();
+        copy.setPlayerName(player.getPlayerName());
+        copy.setPassword(player.getPassword());
+        copy.setTotalScore(player.getTotalScore());
+
+        players.put(copy.getPlayerName(), copy);
+    }
+
+    /**
+     * Removes a player from the cache.
+     *
+     * @param playerName the player's username.
+     */
+    public synchronized void invalidate(String playerName)
+    {
+        invalidations++;
+        players.remove(playerName);
+    }
+
+    /**
+     * Removes several players from the cache.
+     *
+     * @param playerNames the players' usernames.
+     * @see Iterable
+     */
+    public synchronized void invalidateAll(Iterable<String> playerNames)
+    {
+        invalidations++;
+
+        for (String playerName : playerNames)
+            players.remove(playerName);
+    }
+
+    /**
+     * Retrieves the number of cached players.
+     *
+     * @return the number of players.
+     */
+    public synchronized int size()
+    {
+        return players.size();
+    }
+
+    /**
+     * Retrieves the number of lookups that found a cached player.
+     *
+     * @return the number of hits.
+     */
+    public synchronized long getHitCount()
+    {
+        return hits;
+    }
+
+    /**
+     * Retrieves the number of lookups that found no cached player.
+     *
+     * @return the number of misses.
+     */
+    public synchronized long getMissCount()
+    {
+        return misses;
+    }
+
+    /**
+     * Retrieves the number of players evicted to make room
+     * for others.
+     *
+     * @return the number of evictions.
+     */
+    public synchronized long getEvictionCount()
+    {
+        return evictions;
+    }
+}
@@ -0,0 +1,355 @@
+package janken.integration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.ejb.EJBException;
+
+/**
+ * This class buffers score increments on their way to the
+ * database, so that game threads never wait for it. Increments
+ * are coalesced per player, and written in batches whenever
+ * enough players have pending increments or a fixed interval
+ * has passed, whichever comes first. Players whose increments
+ * are equal are written together in a single statement.
+ *
+ * <p> The buffer holds at most a fixed number of players. An
+ * increment for a player that is not already pending is
+ * rejected while the buffer is full. A batch that fails to be
+ * written is returned to the buffer and retried with the next.
+ * Once the aggregator has been stopped, increments are no longer
+ * buffered but written as they arrive.
+ *
+ * <p> A listener may be told of every increment once it has been
+ * written, so that views of the scores agree with the database
+ * without having to read it back.
+ *
+ * @author Rikard Nordström
+ * @see JankenDAO
+ */
+public class ScoreAggregator implements Runnable
+{
+    private final JankenDAO jankenDAO;
+    private final Listener listener;
+    private final int flushSize;
+    private final int maxPending;
+    private final long flushInterval;
+    private final Object flushLock = new Object();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong lastFlushMillis = new AtomicLong();
+    private final AtomicLong maxFlushMillis = new AtomicLong();
+    private HashMap<String, Integer> pending = new HashMap<>();
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> schedule;
+    private boolean flushRequested;
+    private boolean stopped;
+
+    /**
+     * Creates a score aggregator. Nothing is written
+     * until the aggregator is started.
+     *
+     * @param jankenDAO the EJB that writes scores.
+     * @param listener the listener that is told of written
+     *                 increments, or <tt>null</tt> if there is none.
+     * @param flushSize the number of pending players
+     *                  that triggers a write.
+     * @param maxPending the most players that may be pending.
+     * @param flushInterval the longest time in milliseconds
+     *                      that an increment may be pending.
+     */
+    public ScoreAggregator(JankenDAO jankenDAO, Listener listener, int flushSize,
+            int maxPending, long flushInterval)
+    {
+        this.jankenDAO = jankenDAO;
+        this.listener = listener;
+        this.flushSize = Math.max(1, flushSize);
+        this.maxPending = Math.max(this.flushSize, maxPending);
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * Starts writing pending increments at a fixed interval.
+     *
+     * @param executor the executor that writes increments.
+     * @see ScheduledExecutorService
+     */
+    public synchronized void start(ScheduledExecutorService executor)
+    {
+        this.executor = executor;
+        schedule = executor.scheduleWithFixedDelay(this, flushInterval, flushInterval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the aggregator and writes every increment
+     * that is still pending. Increments added afterwards
+     * are written at once.
+     */
+    public void stop()
+    {
+        synchronized(this)
+        {
+            if(schedule != null)
+                schedule.cancel(false);
+
+            executor = null;
+            stopped = true;
+        }
+
+        flush();
+    }
+
+    /**
+     * Adds an increment to a player's pending score.
+     * Never waits for the database unless the aggregator
+     * has been stopped.
+     *
+     * @param playerName the player's username.
+     * @param amount the amount to add to the player's score.
+     * @return <tt>true</tt> if the increment was accepted and
+     *         <tt>false</tt> if the buffer is full, or if the
+     *         aggregator has been stopped and the increment
+     *         could not be written.
+     */
+    public boolean add(String playerName, int amount)
+    {
+        boolean late;
+        boolean accepted;
+
+        synchronized(this)
+        {
+            late = stopped;
+            accepted = !late && merge(playerName, amount);
+        }
+
+        // Nothing is flushed after the final flush, so late increments are written at once.
+        if(late)
+            return writeThrough(playerName, amount);
+
+        if(!accepted)
+        {
+            rejected.incrementAndGet();
+            System.err.println("Score buffer is full; dropped " + amount
+                    + " point(s) for " + playerName + ".");
+        }
+
+        return accepted;
+    }
+
+    /**
+     * Writes pending increments on the schedule.
+     */
+    @Override
+    public void run()
+    {
+        flush();
+    }
+
+    /**
+     * Writes every pending increment to the database.
+     */
+    public void flush()
+    {
+        synchronized(flushLock)
+        {
+            HashMap<String, Integer> batch;
+
+            synchronized(this)
+            {
+                flushRequested = false;
+
+                if(pending.isEmpty())
+                    return;
+
+                batch = pending;
+                pending = new HashMap<>();
+            }
+
+            long start = System.currentTimeMillis();
+
+            try
+            {
+                write(batch);
+            }
+            catch(EJBException | NullPointerException e)
+            {
+                System.err.println("Could not write scores: " + e.toString());
+
+                for (Map.Entry<String, Integer> entry : batch.entrySet())
+                {
+                    if(!merge(entry.getKey(), entry.getValue()))
+                        rejected.incrementAndGet();
+                }
+
+                return;
+            }
+
+            long elapsed = System.currentTimeMillis() - start;
+            lastFlushMillis.set(elapsed);
+            flushes.incrementAndGet();
+
+            if(elapsed > maxFlushMillis.get())
+                maxFlushMillis.set(elapsed);
+        }
+    }
+
+    /**
+     * Retrieves the number of players with pending increments.
+     *
+     * @return the number of pending players.
+     */
+    public synchronized int getPendingCount()
+    {
+        return pending.size();
+    }
+
+    /**
+     * Retrieves the number of batches written since the
+     * aggregator was created.
+     *
+     * @return the number of batches written.
+     */
+    public long getFlushCount()
+    {
+        return flushes.get();
+    }
+
+    /**
+     * Retrieves the number of increments rejected
+     * because the buffer was full.
+     *
+     * @return the number of rejected increments.
+     */
+    public long getRejectedCount()
+    {
+        return rejected.get();
+    }
+
+    /**
+     * Retrieves the time taken by the latest write.
+     *
+     * @return the time in milliseconds.
+     */
+    public long getLastFlushMillis()
+    {
+        return lastFlushMillis.get();
+    }
+
+    /**
+     * Retrieves the time taken by the slowest write.
+     *
+     * @return the time in milliseconds.
+     */
+    public long getMaxFlushMillis()
+    {
+        return maxFlushMillis.get();
+    }
+
+    private synchronized boolean merge(String playerName, int amount)
+    {
+        Integer current = pending.get(playerName);
+
+        if(current == null && pending.size() >= maxPending)
+            return false;
+
+        pending.put(playerName, current == null ? amount : current + amount);
+
+        if(pending.size() >= flushSize && !flushRequested && executor != null)
+        {
+            try
+            {
+                executor.execute(this);
+                flushRequested = true;
+            }
+            catch(RejectedExecutionException ree)
+            {
+                System.err.println(ree.toString());
+            }
+        }
+
+        return true;
+    }
+
+    private boolean writeThrough(String playerName, int amount)
+    {
+        HashMap<String, Integer> batch = new HashMap<>();
+        batch.put(playerName, amount);
+
+        synchronized(flushLock)
+        {
+            try
+            {
+                write(batch);
+            }
+            catch(EJBException | NullPointerException e)
+            {
+                rejected.incrementAndGet();
+                System.err.println("Could not write " + amount + " point(s) for "
+                        + playerName + ": " + e.toString());
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void write(HashMap<String, Integer> batch)
+    {
+        HashMap<Integer, ArrayList<String>> byAmount = new HashMap<>();
+
+        for (Map.Entry<String, Integer> entry : batch.entrySet())
+        {
+            ArrayList<String> names = byAmount.get(entry.getValue());
+
+            if(names == null)
+            {
+                names = new ArrayList<>();
+                byAmount.put(entry.getValue(), names);
+            }
+
+            names.add(entry.getKey());
+        }
+
+        for (Map.Entry<Integer, ArrayList<String>> entry : byAmount.entrySet())
+        {
+            if(entry.getValue().size() == 1)
+                jankenDAO.incrementPlayerScore(entry.getValue().get(0), entry.getKey());
+            else
+                jankenDAO.incrementPlayerScores(entry.getValue(), entry.getKey());
+
+            // Written players are not retried if a later statement fails.
+            for (String name : entry.getValue())
+            {
+                batch.remove(name);
+
+                if(listener != null)
+                    listener.scoreAdded(name, entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * This interface represents a view of the scores that
+     * is updated as increments are written.
+     */
+    public interface Listener
+    {
+        /**
+         * Called once for every player whose coalesced increment
+         * has been written, on the thread that wrote it. Calls are
+         * never made concurrently. Increments that are dropped or
+         * still pending are not reported.
+         *
+         * @param playerName the player's username.
+         * @param amount the amount added to the player's score.
+         */
+        void scoreAdded(String playerName, int amount);
+    }
+}
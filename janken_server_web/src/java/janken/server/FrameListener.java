@@ -0,0 +1,50 @@
+package janken.server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This interface represents a receiver of events from
+ * a framed channel. Implementations are notified
+ * whenever a complete frame has arrived on a channel,
+ * when a channel has received nothing for longer than
+ * the idle timeout and when a channel has been closed.
+ *
+ * <p> Frames and idle channels are reported on a selector
+ * thread. A closed channel is reported on whichever thread
+ * closed it, which may be a selector thread, a game thread
+ * or a sweep of idle channels. Implementations must therefore
+ * never block, and must not assume which thread they are on.
+ *
+ * @author Rikard Nordström
+ * @see FramedChannel
+ */
+public interface FrameListener
+{
+    /**
+     * Called when a complete frame has been read from a channel.
+     *
+     * @param channel the channel that received the frame.
+     * @param frame the frame payload, excluding its length header.
+     * @see ByteBuffer
+     */
+    void frameReceived(FramedChannel channel, ByteBuffer frame);
+
+    /**
+     * Called periodically for as long as nothing has been read from
+     * a channel for longer than the transport's idle timeout. The
+     * listener decides whether the channel is dead and should be
+     * closed.
+     *
+     * @param channel the idle channel.
+     */
+    void channelIdle(FramedChannel channel);
+
+    /**
+     * Called once when a channel has been closed,
+     * either by the remote end or by the server,
+     * on the thread that closed it.
+     *
+     * @param channel the closed channel.
+     */
+    void channelClosed(FramedChannel channel);
+}
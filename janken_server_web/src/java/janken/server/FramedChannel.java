@@ -0,0 +1,358 @@
+package janken.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+/**
+ * This class represents a single non-blocking client
+ * connection on the game transport. Inbound bytes are
+ * split into length-prefixed frames, which are handed to
+ * the channel's listener, while outbound frames are written
+ * immediately when possible and queued otherwise.
+ *
+ * <p> Each frame consists of a four byte length header
+ * followed by that many bytes of payload.
+ * 
+ * <p> Every channel has a memory budget that bounds the bytes
+ * it may retain at once: its read buffer, which shrinks back
+ * once an unusually large frame has been consumed, and all
+ * queued outbound frames. A channel whose client falls so
+ * far behind that the budget would be exceeded is closed.
+ *
+ * @author Rikard Nordström
+ * @see GameTransport
+ * @see FrameListener
+ */
+public class FramedChannel
+{
+    /** The size of a frame's length header, in bytes. */
+    public static final int HEADER_SIZE = 4;
+    /** The largest payload that a single frame may carry. */
+    public static final int MAX_FRAME_SIZE = 64 * 1024;
+    private static final int INITIAL_BUFFER_SIZE = 512;
+    private final SocketChannel channel;
+    private final GameTransport.SelectorLoop loop;
+    private final int budget;
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+    private int outboundBytes;
+    private volatile ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private SelectionKey key;
+    private volatile FrameListener listener;
+    private volatile Object attachment;
+    private volatile boolean closed = false;
+    private volatile long lastActivity = System.currentTimeMillis();
+
+    /**
+     * Creates a framed channel.
+     *
+     * @param channel the underlying socket channel.
+     * @param loop the selector loop that services the channel.
+     * @param listener the initial receiver of the channel's events.
+     * @param budget the most bytes the channel may retain at once.
+     * @see SocketChannel
+     */
+    FramedChannel(SocketChannel channel, GameTransport.SelectorLoop loop,
+            FrameListener listener, int budget)
+    {
+        this.channel = channel;
+        this.loop = loop;
+        this.listener = listener;
+        this.budget = budget;
+    }
+
+    /**
+     * Queues a frame for delivery to the client. The frame
+     * must include its length header. If nothing is already
+     * queued, the frame is written directly from the calling
+     * thread and only the remainder, if any, is queued.
+     * If queueing the remainder would exceed the channel's
+     * memory budget, the channel is closed instead.
+     *
+     * @param frame the frame to be sent.
+     * @see ByteBuffer
+     */
+    public void send(ByteBuffer frame)
+    {
+        synchronized(outbound)
+        {
+            if(closed)
+                return;
+
+            if(outbound.isEmpty())
+            {
+                try
+                {
+                    channel.write(frame);
+                }
+                catch(IOException ioe)
+                {
+                    frame = null;
+                }
+
+                if(frame != null && !frame.hasRemaining())
+                    return;
+            }
+
+            if(frame != null 
+                    && readBuffer.capacity() + outboundBytes + frame.remaining() > budget)
+            {
+                System.err.println("Discarding connection that exceeded its memory budget of "
+                        + budget + " bytes.");
+                frame = null;
+            }
+
+            if(frame != null)
+            {
+                outbound.add(frame);
+                outboundBytes += frame.remaining();
+            }
+        }
+
+        if(frame == null)
+            close();
+        else
+            loop.requestWrite(this);
+    }
+
+    /**
+     * Sets the receiver of this channel's events.
+     *
+     * @param listener the new receiver.
+     * @see FrameListener
+     */
+    public void setListener(FrameListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Retrieves the object attached to this channel.
+     *
+     * @return the attached object or <tt>null</tt> if
+     *         no object has been attached.
+     */
+    public Object getAttachment()
+    {
+        return attachment;
+    }
+
+    /**
+     * Attaches an arbitrary object to this channel.
+     *
+     * @param attachment the object to attach.
+     */
+    public void setAttachment(Object attachment)
+    {
+        this.attachment = attachment;
+    }
+
+    /**
+     * Used to check if the channel is still open.
+     *
+     * @return <tt>true</tt> if the channel is open
+     *         and <tt>false</tt> otherwise.
+     */
+    public boolean isOpen()
+    {
+        return !closed;
+    }
+
+    /**
+     * Retrieves the time at which anything was last read from
+     * the channel, or the time at which it was opened if
+     * nothing has been read yet.
+     *
+     * @return the time of the last activity, in milliseconds.
+     */
+    public long getLastActivity()
+    {
+        return lastActivity;
+    }
+
+    /**
+     * Retrieves the number of bytes that the channel currently
+     * retains, consisting of its read buffer and all outbound
+     * frames that have yet to be written.
+     *
+     * @return the number of retained bytes.
+     */
+    public int getRetainedBytes()
+    {
+        synchronized(outbound)
+        {
+            return closed ? 0 : readBuffer.capacity() + outboundBytes;
+        }
+    }
+
+    /**
+     * Closes the channel and notifies its listener.
+     * Calling this method on a closed channel has no effect.
+     */
+    public void close()
+    {
+        synchronized(outbound)
+        {
+            if(closed)
+                return;
+
+            closed = true;
+            outbound.clear();
+            outboundBytes = 0;
+        }
+
+        try
+        {
+            if(key != null)
+                key.cancel();
+
+            channel.close();
+        }
+        catch(IOException ioe)
+        {
+            System.err.println(ioe.toString());
+        }
+
+        listener.channelClosed(this);
+    }
+
+    void notifyIdle()
+    {
+        listener.channelIdle(this);
+    }
+
+    SocketChannel getSocketChannel()
+    {
+        return channel;
+    }
+
+    void setKey(SelectionKey key)
+    {
+        this.key = key;
+    }
+
+    SelectionKey getKey()
+    {
+        return key;
+    }
+
+    void handleRead()
+    {
+        try
+        {
+            if(channel.read(readBuffer) < 0)
+            {
+                close();
+                return;
+            }
+
+            lastActivity = System.currentTimeMillis();
+        }
+        catch(IOException ioe)
+        {
+            close();
+            return;
+        }
+
+        readBuffer.flip();
+
+        while(readBuffer.remaining() >= HEADER_SIZE)
+        {
+            int length = readBuffer.getInt(readBuffer.position());
+
+            if(length < 0 || length > MAX_FRAME_SIZE)
+            {
+                System.err.println("Discarding connection with an invalid frame length of "
+                        + length + ".");
+                close();
+                return;
+            }
+
+            if(readBuffer.remaining() < HEADER_SIZE + length)
+            {
+                if(readBuffer.capacity() < HEADER_SIZE + length)
+                {
+                    if(HEADER_SIZE + length + getOutboundBytes() > budget)
+                    {
+                        System.err.println("Discarding connection that exceeded its "
+                                + "memory budget of " + budget + " bytes.");
+                        close();
+                        return;
+                    }
+
+                    ByteBuffer larger = ByteBuffer.allocate(HEADER_SIZE + length);
+                    larger.put(readBuffer);
+                    readBuffer = larger;
+                    return;
+                }
+
+                break;
+            }
+
+            readBuffer.position(readBuffer.position() + HEADER_SIZE);
+            byte[] payload = new byte[length];
+            readBuffer.get(payload);
+            listener.frameReceived(this, ByteBuffer.wrap(payload));
+
+            if(closed)
+                return;
+        }
+
+        if(readBuffer.capacity() > INITIAL_BUFFER_SIZE 
+                && readBuffer.remaining() <= INITIAL_BUFFER_SIZE)
+        {
+            ByteBuffer smaller = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+            smaller.put(readBuffer);
+            readBuffer = smaller;
+        }
+        else
+            readBuffer.compact();
+    }
+
+    void handleWrite()
+    {
+        synchronized(outbound)
+        {
+            try
+            {
+                while(!outbound.isEmpty())
+                {
+                    ByteBuffer frame = outbound.peek();
+                    outboundBytes -= channel.write(frame);
+
+                    if(frame.hasRemaining())
+                        return;
+
+                    outbound.poll();
+                }
+
+                key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+            catch(IOException ioe)
+            {
+                System.err.println(ioe.toString());
+            }
+        }
+
+        close();
+    }
+
+    private int getOutboundBytes()
+    {
+        synchronized(outbound)
+        {
+            return outboundBytes;
+        }
+    }
+
+    boolean hasPendingWrites()
+    {
+        synchronized(outbound)
+        {
+            return !outbound.isEmpty();
+        }
+    }
+}
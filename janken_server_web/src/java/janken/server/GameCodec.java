@@ -0,0 +1,430 @@
+package janken.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This class converts game messages to and from the frames
+ * carried by the game transport. Every frame is encoded
+ * independently of all others, so no state is shared
+ * between consecutive messages on a connection.
+ *
+ * <p> A frame's payload starts with a one byte opcode.
+ * States, choices and heartbeats consist of the opcode alone,
+ * a round's winners are followed by a varint count and that many
+ * strings, and a roster snapshot is
+ * followed by a varint version, a varint count and that many
+ * strings. A roster change, which announces a single player
+ * joining or leaving, is followed by a varint version and the
+ * player's name. Strings are encoded
+ * as a varint byte length followed by UTF-8 bytes. The opcode
+ * table must be kept in sync with the client's codec.
+ *
+ * <p> Decoded states and choices are returned as shared string
+ * constants, so reading them allocates nothing.
+ *
+ * @author Rikard Nordström
+ * @see FramedChannel
+ */
+public class GameCodec
+{
+    /** Opcode of the handshake that opens every connection. */
+    public static final byte HANDSHAKE = 0x01;
+    /** Opcode of a client heartbeat. */
+    public static final byte HEARTBEAT = 0x02;
+    /** Opcode of the "ready" state. */
+    public static final byte READY = 0x10;
+    /** Opcode of the "wait" state. */
+    public static final byte WAIT = 0x11;
+    /** Opcode of the "connected" state. */
+    public static final byte CONNECTED = 0x12;
+    /** Opcode of the "playing" state. */
+    public static final byte PLAYING = 0x13;
+    /** Opcode of the notice that a phase's deadline has passed. */
+    public static final byte EXPIRED = 0x14;
+    /** Opcode of the choice "rock". */
+    public static final byte ROCK = 0x20;
+    /** Opcode of the choice "paper". */
+    public static final byte PAPER = 0x21;
+    /** Opcode of the choice "scissors". */
+    public static final byte SCISSORS = 0x22;
+    /** Opcode of the choice "spock". */
+    public static final byte SPOCK = 0x23;
+    /** Opcode of the choice "lizard". */
+    public static final byte LIZARD = 0x24;
+    /** Opcode of the names of a round's winners. */
+    public static final byte WINNER = 0x30;
+    /** Opcode of a snapshot of the connected players. */
+    public static final byte ROSTER = 0x40;
+    /** Opcode of a player joining the roster. */
+    public static final byte ROSTER_JOIN = 0x41;
+    /** Opcode of a player leaving the roster. */
+    public static final byte ROSTER_LEAVE = 0x42;
+    private static final String[] MESSAGES = new String[0x30];
+    private static final ByteBuffer[] FRAMES = new ByteBuffer[0x30];
+
+    static
+    {
+        register(HEARTBEAT, "doki");
+        register(READY, "ready");
+        register(WAIT, "wait");
+        register(CONNECTED, "connected");
+        register(PLAYING, "playing");
+        register(EXPIRED, "expired");
+        register(ROCK, "rock");
+        register(PAPER, "paper");
+        register(SCISSORS, "scissors");
+        register(SPOCK, "spock");
+        register(LIZARD, "lizard");
+    }
+
+    private static void register(byte opcode, String message)
+    {
+        MESSAGES[opcode] = message;
+
+        ByteBuffer frame = ByteBuffer.allocate(FramedChannel.HEADER_SIZE + 1);
+        frame.putInt(1).put(opcode).flip();
+        FRAMES[opcode] = frame.asReadOnlyBuffer();
+    }
+
+    /**
+     * Encodes a state, choice or heartbeat message as
+     * a complete frame, including its length header.
+     *
+     * @param message the message to be encoded.
+     * @return a frame that is ready to be sent.
+     * @throws IllegalArgumentException if the message is
+     *         not a state, choice or heartbeat.
+     * @see ByteBuffer
+     */
+    public static ByteBuffer encode(String message)
+    {
+        for (int opcode = 0; opcode < MESSAGES.length; opcode++)
+        {
+            if(message.equals(MESSAGES[opcode]))
+                return FRAMES[opcode].duplicate();
+        }
+
+        throw new IllegalArgumentException("Unknown message: " + message);
+    }
+
+    /**
+     * Encodes the names of a round's winners as a complete
+     * frame, including its length header. A round that ends
+     * in a shared win has several winners.
+     *
+     * @param playerNames the winners' names.
+     * @return a frame that is ready to be sent.
+     * @see ByteBuffer
+     * @see Collection
+     */
+    public static ByteBuffer encodeWinners(Collection<String> playerNames)
+    {
+        return encodeNames(WINNER, playerNames);
+    }
+
+    /**
+     * Encodes a snapshot of the roster as a complete
+     * frame, including its length header.
+     *
+     * @param version the version of the roster.
+     * @param playerNames the names of all connected players.
+     * @return a frame that is ready to be sent.
+     * @see ByteBuffer
+     * @see Collection
+     */
+    public static ByteBuffer encodeRoster(int version, Collection<String> playerNames)
+    {
+        return encodeNames(ROSTER, version, playerNames);
+    }
+
+    private static ByteBuffer encodeNames(byte opcode, Collection<String> playerNames)
+    {
+        return encodeNames(opcode, -1, playerNames);
+    }
+
+    private static ByteBuffer encodeNames(byte opcode, int version, 
+            Collection<String> playerNames)
+    {
+        byte[][] names = new byte[playerNames.size()][];
+        int size = 1 + (version < 0 ? 0 : varintSize(version)) + varintSize(names.length);
+        int i = 0;
+
+        for (String playerName : playerNames)
+        {
+            names[i] = playerName.getBytes(StandardCharsets.UTF_8);
+            size += sizeOf(names[i++]);
+        }
+
+        ByteBuffer frame = allocate(size);
+        frame.put(opcode);
+
+        if(version >= 0)
+            putVarint(frame, version);
+
+        putVarint(frame, names.length);
+
+        for (byte[] name : names)
+            putString(frame, name);
+
+        frame.flip();
+
+        return frame;
+    }
+
+    /**
+     * Encodes a player joining the roster as a complete
+     * frame, including its length header.
+     *
+     * @param version the version of the roster after the change.
+     * @param playerName the name of the joining player.
+     * @return a frame that is ready to be sent.
+     * @see ByteBuffer
+     */
+    public static ByteBuffer encodeRosterJoin(int version, String playerName)
+    {
+        return encodeRosterChange(ROSTER_JOIN, version, playerName);
+    }
+
+    /**
+     * Encodes a player leaving the roster as a complete
+     * frame, including its length header.
+     *
+     * @param version the version of the roster after the change.
+     * @param playerName the name of the leaving player.
+     * @return a frame that is ready to be sent.
+     * @see ByteBuffer
+     */
+    public static ByteBuffer encodeRosterLeave(int version, String playerName)
+    {
+        return encodeRosterChange(ROSTER_LEAVE, version, playerName);
+    }
+
+    /**
+     * Decodes the payload of a frame into a message. States,
+     * choices and heartbeats are returned as shared strings,
+     * and a round's winners and a roster snapshot as lists of
+     * strings. Roster changes are never sent by clients and are
+     * rejected.
+     *
+     * @param frame the frame payload, excluding its length header.
+     * @return the decoded message.
+     * @throws IOException if the payload is malformed.
+     * @see ByteBuffer
+     */
+    public static Object decode(ByteBuffer frame) throws IOException
+    {
+        try
+        {
+            byte opcode = frame.get();
+
+            switch(opcode)
+            {
+                case WINNER :
+                    return getNames(frame);
+                case ROSTER :
+                    getVarint(frame);
+
+                    return getNames(frame);
+                default :
+                    if(opcode > 0 && opcode < MESSAGES.length && MESSAGES[opcode] != null)
+                        return MESSAGES[opcode];
+            }
+
+            throw new IOException("Unknown opcode: " + opcode);
+        }
+        catch(RuntimeException re)
+        {
+            throw new IOException("Malformed frame.", re);
+        }
+    }
+
+    /**
+     * Decodes the payload of a handshake frame.
+     *
+     * @param frame the frame payload, excluding its length header.
+     * @return a handshake holding the connection's details.
+     * @throws IOException if the payload is not a valid handshake.
+     * @see Handshake
+     */
+    public static Handshake decodeHandshake(ByteBuffer frame) throws IOException
+    {
+        try
+        {
+            if(frame.get() != HANDSHAKE)
+                throw new IOException("Expected a handshake.");
+
+            boolean utility = frame.get() != 0;
+            String instanceName = getString(frame);
+            String playerName = getString(frame);
+            String token = frame.hasRemaining() ? getString(frame) : null;
+
+            return new Handshake(instanceName, playerName, token, utility);
+        }
+        catch(RuntimeException re)
+        {
+            throw new IOException("Malformed handshake.", re);
+        }
+    }
+
+    private static ByteBuffer encodeRosterChange(byte opcode, int version, String playerName)
+    {
+        byte[] name = playerName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = allocate(1 + varintSize(version) + sizeOf(name));
+        frame.put(opcode);
+        putVarint(frame, version);
+        putString(frame, name);
+        frame.flip();
+
+        return frame;
+    }
+
+    private static ByteBuffer allocate(int payloadSize)
+    {
+        ByteBuffer frame = ByteBuffer.allocate(FramedChannel.HEADER_SIZE + payloadSize);
+        frame.putInt(payloadSize);
+
+        return frame;
+    }
+
+    private static int sizeOf(byte[] string)
+    {
+        return varintSize(string.length) + string.length;
+    }
+
+    private static int varintSize(int value)
+    {
+        int size = 1;
+
+        while((value >>>= 7) != 0)
+            size++;
+
+        return size;
+    }
+
+    private static void putVarint(ByteBuffer frame, int value)
+    {
+        while((value & ~0x7F) != 0)
+        {
+            frame.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        frame.put((byte) value);
+    }
+
+    private static int getVarint(ByteBuffer frame) throws IOException
+    {
+        int value = 0;
+
+        for (int shift = 0; shift < 32; shift += 7)
+        {
+            byte b = frame.get();
+            value |= (b & 0x7F) << shift;
+
+            if((b & 0x80) == 0)
+                return value;
+        }
+
+        throw new IOException("Malformed varint.");
+    }
+
+    private static void putString(ByteBuffer frame, byte[] string)
+    {
+        putVarint(frame, string.length);
+        frame.put(string);
+    }
+
+    private static List<String> getNames(ByteBuffer frame) throws IOException
+    {
+        int count = getVarint(frame);
+        List<String> playerNames = new ArrayList<>(Math.min(count, frame.remaining()));
+
+        for (int i = 0; i < count; i++)
+            playerNames.add(getString(frame));
+
+        return playerNames;
+    }
+
+    private static String getString(ByteBuffer frame) throws IOException
+    {
+        int length = getVarint(frame);
+
+        if(length < 0 || length > frame.remaining())
+            throw new IOException("Malformed string.");
+
+        String string = new String(frame.array(), frame.arrayOffset() + frame.position(),
+                length, StandardCharsets.UTF_8);
+        frame.position(frame.position() + length);
+
+        return string;
+    }
+
+    /**
+     * This class represents the contents of a handshake.
+     */
+    public static class Handshake
+    {
+        private final String instanceName;
+        private final String playerName;
+        private final String token;
+        private final boolean utility;
+
+        private Handshake(String instanceName, String playerName, String token,
+                boolean utility)
+        {
+            this.instanceName = instanceName;
+            this.playerName = playerName;
+            this.token = token;
+            this.utility = utility;
+        }
+
+        /**
+         * Retrieves the name of the instance to join.
+         *
+         * @return the instance's name.
+         */
+        public String getInstanceName()
+        {
+            return instanceName;
+        }
+
+        /**
+         * Retrieves the name of the joining player.
+         *
+         * @return the player's name.
+         */
+        public String getPlayerName()
+        {
+            return playerName;
+        }
+
+        /**
+         * Retrieves the session token that the player
+         * was issued at login.
+         *
+         * @return the token, or <tt>null</tt> if the
+         *         handshake carried none.
+         */
+        public String getToken()
+        {
+            return token;
+        }
+
+        /**
+         * Used to check if the connection is a player's
+         * secondary connection.
+         *
+         * @return <tt>true</tt> for a secondary connection
+         *         and <tt>false</tt> for a primary connection.
+         */
+        public boolean isUtility()
+        {
+            return utility;
+        }
+    }
+}
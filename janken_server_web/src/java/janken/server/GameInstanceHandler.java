@@ -1,17 +1,19 @@
 package janken.server;
 
-import janken.integration.JankenDAO;
-import java.io.EOFException;
+import janken.integration.ScoreAggregator;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.ServerSocket;
-import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
-import javax.ejb.EJBException;
-import javax.enterprise.concurrent.ManagedScheduledExecutorService;
 
 /**
  * This class represents a game instance in progress.
@@ -19,188 +21,147 @@ import javax.enterprise.concurrent.ManagedScheduledExecutorService;
  * including connections, player ready statuses and
  * gameplay decisions, it contains methods to retrieve
  * the names and the amount of connected players,
- * as well as to retrieve its own name and socket ports.
+ * as well as to retrieve its own name.
+ * 
+ * <p> An instance holds as many players as the capacity it
+ * was created with. Seated players are kept in join order in
+ * a linked hash set, so that seating or releasing a player
+ * takes constant time however large the instance is.
  * 
  * <p> Two separate connections are managed within
  * this class: a primary and a secondary connection.
  * The primary connection is used for all communication
  * that concerns the state of the game, while the
  * secondary connection is used solely for other
- * forms of communication.
+ * forms of communication. Neither connection is owned
+ * by the instance; both are attached by the shared
+ * game transport, which delivers every received
+ * frame to the instance as an event.
+ * 
+ * <p> Each phase of a round accepts only the answers that belong
+ * to it. A message that arrives between phases is held for the
+ * next phase, but every message still pending when a phase closes
+ * is discarded, so that a late answer is never counted in the
+ * phase after it. For the same reason, an answer to the phase
+ * that closed last is discarded until the next phase opens.
+ * Players that have not answered when a phase's deadline passes
+ * are told so at once.
+ * 
+ * <p> A player leaves the instance as soon as either of
+ * their connections is closed, whether by the player, by
+ * a network failure or for idleness. Departures are queued
+ * and released by the game thread between phases, which
+ * frees the player's slot and name.
+ * 
+ * <p> When the game ends, for whatever reason, the instance
+ * releases every remaining connection, leaves the roster
+ * broadcaster and notifies its listener straight away, so
+ * that nothing has to poll for finished instances.
  * 
  * @author Rikard Nordström
  */
-public class GameInstanceHandler implements Callable<String>
+public class GameInstanceHandler implements Callable<String>, FrameListener
 {
     private String name;
-    private int port;
-    private int utilityPort;
-    private ServerSocket serverSocket;
-    private ServerSocket serverUtilitySocket;
-    private PlayerConnection[] connections = new PlayerConnection[4];
-    private int numConnections;
-    private boolean inProgress = true;
+    private final LinkedHashSet<PlayerConnection> seated = new LinkedHashSet<>();
+    private volatile int numConnections;
+    private final int capacity;
+    private final HashMap<String, PlayerConnection> attached = new HashMap<>();
+    private final BlockingQueue<PlayerConnection> pendingJoins = 
+            new LinkedBlockingQueue<>();
+    private final ConcurrentLinkedQueue<PlayerConnection> departures = 
+            new ConcurrentLinkedQueue<>();
+    private RoundCollector currentRound;
+    private Collection<String> currentAnswers;
+    private Collection<String> lateAnswers;
+    private volatile boolean inProgress = true;
+    private boolean ended = false;
     private boolean playing = false;
     private boolean roundDone = false;
-    private static final int MAX_PLAYERS = 4;
     private static final String READY_MESSAGE = "ready";
     private static final String WAIT_MESSAGE = "wait";
     private static final String CONNECTED_MESSAGE = "connected";
     private static final String PLAYING_MESSAGE = "playing";
-    private static final String ROCK = "rock";
-    private static final String PAPER = "paper";
-    private static final String SCISSORS = "scissors";
-    private JankenDAO jankenDAO;
-    private ManagedScheduledExecutorService playerStateScheduler;
+    private static final String EXPIRED_MESSAGE = "expired";
+    private static final List<String> READY_ANSWERS = 
+            Arrays.asList(READY_MESSAGE, WAIT_MESSAGE);
+    private ScoreAggregator scoreAggregator;
+    private final Roster roster = new Roster();
+    private RosterBroadcaster rosterBroadcaster;
+    private TimingWheel deadlineTimer;
+    private GameSettings settings;
+    private volatile InstanceListener listener;
     
     /**
      * Allocates all resources necessary to manage the
-     * game session, as well as scheduling a player connection
-     * monitor.
+     * game session.
      * 
      * @param name the name of the instance.
-     * @param jankenDAO an EJB managing database connections.
-     * @param playerStateScheduler a scheduled thread pool that manages
-     *                             the player connection monitor.
-     * @see JankenDAO
-     * @see ManagedScheduledExecutorService
+     * @param scoreAggregator the buffer that winners' points are
+     *                        written through, shared by all instances.
+     * @param rosterBroadcaster the service that broadcasts the roster
+     *                          to the players, shared by all instances.
+     * @param deadlineTimer the timer that enforces round deadlines,
+     *                      shared by all instances.
+     * @param settings the capacity, rules, round deadlines
+     *                 and expiry policies.
+     * @see ScoreAggregator
+     * @see RosterBroadcaster
+     * @see TimingWheel
+     * @see GameSettings
      */
-    public GameInstanceHandler(String name, JankenDAO jankenDAO, 
-            ManagedScheduledExecutorService playerStateScheduler)
+    public GameInstanceHandler(String name, ScoreAggregator scoreAggregator, 
+            RosterBroadcaster rosterBroadcaster, TimingWheel deadlineTimer, 
+            GameSettings settings)
     {
         this.name = name;
-        this.jankenDAO = jankenDAO;
-        this.playerStateScheduler = playerStateScheduler;
-        
-        for (int i = 0; i < connections.length; i++)
-            connections[i] = new PlayerConnection();
-        
-        try 
-        {
-            serverSocket = new ServerSocket(0);
-            serverSocket.setSoTimeout(1000);
-            serverUtilitySocket = new ServerSocket(0);
-            port = serverSocket.getLocalPort();
-            utilityPort = serverUtilitySocket.getLocalPort();
-        } 
-        catch (IOException ioe) 
-        {
-            ioe.printStackTrace(System.err);
-        }
-        
-        this.playerStateScheduler
-                .scheduleAtFixedRate(new PlayerMonitor(), 1, 1, TimeUnit.SECONDS);
+        this.scoreAggregator = scoreAggregator;
+        this.rosterBroadcaster = rosterBroadcaster;
+        this.deadlineTimer = deadlineTimer;
+        this.settings = settings;
+        this.capacity = settings.getCapacity();
     }
     
     @Override
     public String call()
     {
+        rosterBroadcaster.register(this);
+        
         try 
         {
             System.out.println("Game instance " + name + " is in progress.");
             while (inProgress)
             {
+                releaseDepartures();
+
+                if(!inProgress)
+                    break;
+
                 try 
                 {
-                    if(numConnections < MAX_PLAYERS && roundDone == false)
+                    if(numConnections < capacity && roundDone == false)
                     {   
                         System.out.println("Waiting for a player to connect...");
-                        boolean tryToConnect = true;
+                        PlayerConnection joined = null;
 
-                        while(tryToConnect)
+                        while(joined == null && inProgress)
                         {
-                            try 
-                            {
-                                connections[numConnections]
-                                        .setSocket(serverSocket.accept());
-
-                                System.out.println("A player has connected to game instance " 
-                                + name + "!");
-                                tryToConnect = false;
-                            } 
-                            catch (SocketTimeoutException ste) 
-                            {
-                                // System.err.println(ste.toString());
-
-                                for (int i = 0; i < numConnections; i++)
-                                {
-                                    PlayerConnection player = connections[i];
-
-                                    try 
-                                    {
-                                        ObjectInputStream in = 
-                                            (ObjectInputStream) player.getUtilityStreams()
-                                                    .getInStream();
-
-                                        in.skipBytes(in.available());
-
-                                        String doki = (String) in.readObject();
-                                    } 
-                                    catch(ClassNotFoundException cnfe)
-                                    {
-                                        cnfe.printStackTrace(System.err);
-                                    }
-                                    catch(IOException ioe) 
-                                    {
-                                        // System.err.println(ioe.toString());
-                                        // handleDisconnect(i);
-                                        
-                                        Thread.sleep(500);
-                                        
-                                        i--;
-
-                                        if(numConnections == 0)
-                                            tryToConnect = false;
-                                    }
-                                }
-                            }
-                        }
-
-                        ObjectOutputStream out = 
-                        new ObjectOutputStream(connections[numConnections]
-                                .getSocket().getOutputStream());
-                        ObjectInputStream in = 
-                                new ObjectInputStream(connections[numConnections]
-                                        .getSocket().getInputStream());
-
-                        connections[numConnections]
-                                .setUtilitySocket(serverUtilitySocket.accept());
-
-                        ObjectOutputStream utilityOut = 
-                                new ObjectOutputStream(connections[numConnections]
-                                        .getUtilitySocket().getOutputStream());
-                        ObjectInputStream utilityIn = 
-                                new ObjectInputStream(connections[numConnections]
-                                        .getUtilitySocket().getInputStream());
-
-                        String playerName = "";
+                            joined = pendingJoins.poll(1, TimeUnit.SECONDS);
 
-                        try 
-                        {
-                            System.out.println("Waiting for player to send their name...");
-                            Object input = in.readObject();
-                            playerName = (String) input;
-                            System.out.println("Player " + playerName + " has joined!");
-
-                            connections[numConnections].setPlayerName(playerName);
-                        } 
-                        catch (ClassNotFoundException cnfe) 
-                        {
-                            cnfe.printStackTrace(System.err);
+                            if(joined == null)
+                                releaseDepartures();
                         }
 
-                        StreamPair playerStreamPair = new StreamPair(in, out);
-                        StreamPair utilityStreamPair = new StreamPair(utilityIn, utilityOut);
-                        connections[numConnections].setStreams(playerStreamPair);
-                        connections[numConnections].setUtilityStreams(utilityStreamPair);
+                        if(joined == null)
+                            continue;
 
-                        numConnections++;
+                        // Seat everyone who has joined since, not just the first.
+                        do
+                            seat(joined);
+                        while(numConnections < capacity 
+                                && (joined = pendingJoins.poll()) != null);
                     }
                 } 
-                catch(IOException ioe) 
-                {
-                    ioe.printStackTrace(System.err);
-                }
                 catch(NullPointerException npe)
                 {
                     System.err.println(npe.toString());
@@ -212,23 +173,37 @@ public class GameInstanceHandler implements Callable<String>
                     roundDone = false;
                     continue;
                 }
-                else if(numConnections >= 2 && numConnections < MAX_PLAYERS)
+                else if(numConnections >= 2 && numConnections < capacity)
                 {
+                    RoundCollector readyRound = openRound(READY_ANSWERS);
+
                     if(roundDone == false)
-                        broadcast(CONNECTED_MESSAGE);
+                        broadcast(GameCodec.encode(CONNECTED_MESSAGE));
 
-                    for (int i = 0; i < numConnections; i++)
-                    {
-                        PlayerConnection player = connections[i];
+                    System.out.println("Waiting for ready status from " 
+                            + numConnections + " players...");
+                    awaitRound(readyRound, settings.getReadyDeadline());
+                    closeRound();
+                    int abstainCount = 0;
 
+                    for (PlayerConnection player : seated)
+                    {
                         try 
                         {
-                            ObjectInputStream in = 
-                                    (ObjectInputStream) player.getStreams().getInStream();
+                            Object input = readyRound.getAnswer(player);
+
+                            if(input == null)
+                            {
+                                System.out.println("No ready status from " 
+                                        + player.getPlayerName() + ".");
+                                player.setReady(false);
+
+                                if(!settings.isReadyExpiryWait())
+                                    abstainCount++;
+
+                                continue;
+                            }
 
-                            System.out.println("Waiting for ready status from " 
-                                    + player.getPlayerName() + "...");
-                            Object input = in.readObject();
                             System.out.println("Ready status received from " 
                                     + player.getPlayerName() + "!");
                             String decision = (String) input;
@@ -239,36 +214,17 @@ public class GameInstanceHandler implements Callable<String>
                             else if(decision.equals(WAIT_MESSAGE))
                                 player.setReady(false);
                         } 
-                        catch(ClassNotFoundException cnfe) 
+                        catch(ClassCastException | NullPointerException e)
                         {
-                            cnfe.printStackTrace(System.err);
-                        }
-                        catch(NullPointerException npe)
-                        {
-                            System.err.println(npe.toString());
-                        }
-                        catch(IOException ioe)
-                        {
-                            if(ioe instanceof EOFException)
-                            {
-                                // handleDisconnect(i);
-                                
-                                Thread.sleep(500);
-                                
-                                i--;
-                            }
-                            else
-                                ioe.printStackTrace(System.err);
+                            System.err.println(e.toString());
                         }
                     }
 
                     int readyCount = 0;
                     int waitCount = 0;
 
-                    for (int i = 0; i < numConnections; i++)
+                    for (PlayerConnection player : seated)
                     {
-                        PlayerConnection player = connections[i];
-
                         try 
                         {
                             if (player.isReady())
@@ -282,6 +238,7 @@ public class GameInstanceHandler implements Callable<String>
                         }
                     }
 
+                    waitCount -= abstainCount;
                     System.out.println(readyCount + " players are ready; "
                         + waitCount + " players want to wait.");
 
@@ -289,14 +246,14 @@ public class GameInstanceHandler implements Callable<String>
                     {
                         System.out.println("Waiting for more players...");
                         roundDone = false;
-                        broadcast(WAIT_MESSAGE);
+                        broadcast(GameCodec.encode(WAIT_MESSAGE));
                         continue;
                     }
                     else
                     {
                         System.out.println("Round starting!");
                         playing = true;
-                        broadcast(PLAYING_MESSAGE);
+                        broadcast(GameCodec.encode(PLAYING_MESSAGE));
                     }
                 }
                 else
@@ -304,18 +261,28 @@ public class GameInstanceHandler implements Callable<String>
 
                 if(playing)
                 {
-                    for (int i = 0; i < numConnections; i++)
+                    RoundCollector choiceRound = openRound(settings.getRuleSet().getChoices());
+
+                    System.out.println("Waiting for choices from " 
+                            + numConnections + " players...");
+                    boolean allChose = awaitRound(choiceRound, settings.getChoiceDeadline());
+                    closeRound();
+
+                    for (PlayerConnection player : seated)
                     {
-                        PlayerConnection player = connections[i];
+                        player.setChoice(null);
 
                         try 
                         {
-                            ObjectInputStream in
-                                    = (ObjectInputStream) player.getStreams().getInStream();
+                            Object input = choiceRound.getAnswer(player);
+
+                            if(input == null)
+                            {
+                                System.out.println("No choice from " 
+                                        + player.getPlayerName() + ".");
+                                continue;
+                            }
 
-                            System.out.println("Waiting for choice from " 
-                                    + player.getPlayerName() + "...");
-                            Object input = in.readObject();
                             System.out.println("Choice received from " 
                                     + player.getPlayerName() + "!");
                             String choice = (String) input;
@@ -323,104 +290,86 @@ public class GameInstanceHandler implements Callable<String>
 
                             player.setChoice(choice);
                         } 
-                        catch(ClassNotFoundException cfne) 
-                        {
-                            cfne.printStackTrace(System.err);
-                        }
-                        catch(NullPointerException npe)
+                        catch(ClassCastException | NullPointerException e)
                         {
-                            System.err.println(npe.toString());
-                        }
-                        catch(IOException ioe)
-                        {
-                            if(ioe instanceof EOFException)
-                            {
-                                // handleDisconnect(i);
-                                
-                                Thread.sleep(500);
-                                
-                                i--;
-                            }
-                            else
-                                ioe.printStackTrace(System.err);
+                            System.err.println(e.toString());
                         }
                     }
                     
                     if(numConnections < 2)
                     {
-                        broadcast(WAIT_MESSAGE);
+                        broadcast(GameCodec.encode(WAIT_MESSAGE));
                         continue;
                     }
 
-                    for (int i = 0; i < numConnections; i++)
+                    if(!allChose && settings.isChoiceExpiryWait())
                     {
-                        PlayerConnection player = connections[i];
-                        int score = 0;
+                        System.out.println("The round was called off.");
+                        roundDone = false;
+                        broadcast(GameCodec.encode(WAIT_MESSAGE));
+                        continue;
+                    }
 
-                        try 
-                        {
-                            for (int j = 0; j < numConnections; j++)
-                            {
-                                PlayerConnection otherPlayer = connections[j];
-
-                                if(!player.getPlayerName().equals(otherPlayer.getPlayerName()))
-                                {
-                                    if(player.getChoice().equals(ROCK)
-                                        && otherPlayer.getChoice().equals(SCISSORS))
-                                            score++;
-                                    else if(player.getChoice().equals(PAPER)
-                                        && otherPlayer.getChoice().equals(ROCK))
-                                            score++;
-                                    else if(player.getChoice().equals(SCISSORS)
-                                        && otherPlayer.getChoice().equals(PAPER))
-                                            score++;
-                                }
-                            }
+                    RuleSet rules = settings.getRuleSet();
+                    PlayerConnection[] players = 
+                            seated.toArray(new PlayerConnection[numConnections]);
+                    int[] choices = new int[players.length];
 
-                            player.setScore(score);
-                        }
-                        catch(NullPointerException npe)
-                        {
-                            System.err.println(npe.toString());
-                        }
-                    }
+                    for (int i = 0; i < players.length; i++)
+                        choices[i] = rules.indexOf(players[i].getChoice());
 
-                    PlayerConnection winner = connections[0];
+                    int[] scores = rules.score(choices);
+                    int topScore = -1;
+                    int numTop = 0;
 
-                    for (int i = 1; i < numConnections; i++)
+                    for (int i = 0; i < players.length; i++)
                     {
-                        PlayerConnection player = connections[i];
+                        players[i].setScore(scores[i]);
 
-                        try 
-                        {
-                            if (player.getScore() > winner.getScore()) 
-                            {
-                                winner = player;
-                            }
-                        } 
-                        catch (NullPointerException npe) 
+                        if(choices[i] == RuleSet.NO_CHOICE)
+                            continue;
+
+                        if(scores[i] > topScore)
                         {
-                            System.err.println(npe.toString());
+                            topScore = scores[i];
+                            numTop = 1;
                         }
-                    } 
+                        else if(scores[i] == topScore)
+                            numTop++;
+                    }
 
-                    try 
+                    if(topScore < 0)
                     {
-                        int winnerScore = jankenDAO.getPlayerScore(winner.getPlayerName());
-                        jankenDAO.updatePlayerScore(winner.getPlayerName(), winnerScore + 1);
-                    } 
-                    catch(NullPointerException npe) 
+                        System.out.println("Nobody made a choice.");
+                        roundDone = false;
+                        broadcast(GameCodec.encode(WAIT_MESSAGE));
+                        continue;
+                    }
+
+                    if(numTop > 1 && GameSettings.TIE_DRAW.equals(settings.getTiePolicy()))
                     {
-                        npe.printStackTrace(System.err);
+                        System.out.println("The round was a draw.");
+                        roundDone = false;
+                        broadcast(GameCodec.encode(WAIT_MESSAGE));
+                        continue;
                     }
-                    catch(EJBException ejbe)
+
+                    if(!GameSettings.TIE_SHARED.equals(settings.getTiePolicy()))
+                        numTop = 1;
+
+                    ArrayList<String> winners = new ArrayList<>(numTop);
+
+                    for (int i = 0; i < players.length && winners.size() < numTop; i++)
                     {
-                        System.err.println(ejbe.toString());
+                        if(choices[i] != RuleSet.NO_CHOICE && scores[i] == topScore)
+                            winners.add(players[i].getPlayerName());
                     }
 
-                    broadcast(winner.getPlayerName());
-                    System.out.println("The winner is " + winner.getPlayerName()
-                            + "!");
+                    for (String winner : winners)
+                        scoreAggregator.add(winner, 1);
+
+                    broadcast(GameCodec.encodeWinners(winners));
+                    System.out.println("The winner is " + String.join(", ", winners) + "!");
                     roundDone = true;
                 }
             }
@@ -433,6 +382,10 @@ public class GameInstanceHandler implements Callable<String>
         
             return name;
         }
+        finally
+        {
+            end();
+        }
         
         System.out.println("Game instance " + name + " has ended.");
         
@@ -447,15 +400,7 @@ public class GameInstanceHandler implements Callable<String>
      */
     public ArrayList<String> getCurrentPlayers()
     {
-        ArrayList<String> playerNames = new ArrayList<>();
-        
-        for(PlayerConnection player : connections)
-        {
-            if(player.getPlayerName() != null)
-                playerNames.add(player.getPlayerName());
-        }
-        
-        return playerNames;
+        return roster.getPlayerNames();
     }
     
     /**
@@ -468,6 +413,74 @@ public class GameInstanceHandler implements Callable<String>
         return numConnections;
     }
 
+    /**
+     * Retrieves the number of bytes retained by the
+     * connections of all players in the session.
+     * 
+     * @return the number of retained bytes.
+     */
+    public synchronized long getRetainedBytes()
+    {
+        long retained = 0;
+        
+        for (PlayerConnection player : attached.values())
+            retained += player.getRetainedBytes();
+        
+        return retained;
+    }
+
+    /**
+     * Retrieves the number of players that the instance can hold.
+     * 
+     * @return the capacity of the instance.
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+    
+    /**
+     * Retrieves the rules that the instance is played by.
+     * 
+     * @return the rule set.
+     * @see RuleSet
+     */
+    public RuleSet getRuleSet()
+    {
+        return settings.getRuleSet();
+    }
+    
+    /**
+     * Ends the instance if no player has attached to it, such as
+     * an instance created for a player who never connected. The
+     * instance refuses connections from then on, and its game
+     * thread ends within a second.
+     * 
+     * @return <tt>true</tt> if the instance is ending and
+     *         <tt>false</tt> if a player has attached to it.
+     */
+    public synchronized boolean endIfUnjoined()
+    {
+        if(!attached.isEmpty())
+            return false;
+        
+        ended = true;
+        inProgress = false;
+        
+        return true;
+    }
+    
+    /**
+     * Sets the receiver of this instance's events.
+     * 
+     * @param listener the new receiver.
+     * @see InstanceListener
+     */
+    public void setListener(InstanceListener listener)
+    {
+        this.listener = listener;
+    }
+
     /**
      * Retrieves the name of the game instance.
      * 
@@ -479,89 +492,330 @@ public class GameInstanceHandler implements Callable<String>
     }
 
     /**
-     * Retrieves the ports for the primary and secondary
-     * game instance connections.
+     * Attaches a connection to a player in this instance.
+     * A player is created by whichever of their connections
+     * arrives first, and joins the game once their primary
+     * connection has been attached.
      * 
-     * @return a list of all ports that the game instance's
-     *         sockets possess.
-     * @see ArrayList
+     * @param playerName the name of the connecting player.
+     * @param channel the connection to attach.
+     * @param utility <tt>true</tt> if the connection is the
+     *                player's secondary connection and
+     *                <tt>false</tt> otherwise.
+     * @return <tt>true</tt> if the connection was attached and
+     *         <tt>false</tt> if the instance is full or the
+     *         player already has such a connection.
+     * @see FramedChannel
      */
-    public ArrayList<Integer> getPorts() 
+    public synchronized boolean attach(String playerName, FramedChannel channel, 
+            boolean utility)
     {
-        ArrayList<Integer> ports = new ArrayList<>();
-        ports.add(port);
-        ports.add(utilityPort);
+        if(ended)
+            return false;
+        
+        PlayerConnection player = attached.get(playerName);
+        
+        if(player == null)
+        {
+            if(attached.size() >= capacity)
+                return false;
+            
+            player = new PlayerConnection();
+            player.setPlayerName(playerName);
+            attached.put(playerName, player);
+            notifyOccupancy();
+        }
+        
+        if(utility ? player.getUtilityChannel() != null : player.getChannel() != null)
+            return false;
+        
+        // Installed first, so that a send failing below is reported as a departure.
+        channel.setAttachment(player);
+        channel.setListener(this);
+        
+        if(utility)
+        {
+            player.setUtilityChannel(channel);
+            roster.subscribe(channel);
+        }
+        else
+        {
+            player.setChannel(channel);
+            pendingJoins.add(player);
+        }
         
-        return ports;
+        return true;
     }
-    
-    private void broadcast(Object message)
+
+    @Override
+    public void frameReceived(FramedChannel channel, ByteBuffer frame)
     {
+        PlayerConnection player = (PlayerConnection) channel.getAttachment();
+        
+        // Only heartbeats arrive on the secondary connection.
+        if(channel != player.getChannel())
+            return;
+        
         try 
         {
-            for (int i = 0; i < numConnections; i++) 
-            {
-                PlayerConnection player = connections[i];
-                
-                ObjectOutputStream out
-                        = (ObjectOutputStream) player.getStreams().getOutStream();
-                
-                out.writeObject(message);
-                out.flush();
-            }
+            deliver(player, GameCodec.decode(frame));
+        } 
+        catch(IOException ioe) 
+        {
+            System.err.println("Discarding malformed message from " 
+                    + player.getPlayerName() + ": " + ioe.toString());
+        }
+    }
+
+    /**
+     * Closes a player's connections if the player has sent
+     * nothing on either of them within the idle timeout.
+     * The primary connection is typically silent while a
+     * player makes up their mind, so it is only considered
+     * dead if the secondary connection, which carries the
+     * player's heartbeats, is silent as well.
+     * 
+     * @param channel the idle connection.
+     */
+    @Override
+    public void channelIdle(FramedChannel channel)
+    {
+        PlayerConnection player = (PlayerConnection) channel.getAttachment();
+        FramedChannel other = channel == player.getChannel() 
+                ? player.getUtilityChannel() : player.getChannel();
+        
+        if(other != null && other.isOpen() 
+                && other.getLastActivity() > channel.getLastActivity())
+            return;
+        
+        System.out.println("Player " + player.getPlayerName() + " has timed out.");
+        closeChannels(player);
+    }
+
+    @Override
+    public void channelClosed(FramedChannel channel)
+    {
+        PlayerConnection player = (PlayerConnection) channel.getAttachment();
+        departures.add(player);
+        
+        // Secondary connections may be closed while the roster is
+        // being published, so they must not take the instance's lock.
+        if(channel != player.getChannel())
+            return;
+        
+        synchronized(this)
+        {
+            if(currentRound != null)
+                currentRound.forfeit(player);
+        }
+    }
+    
+    private synchronized void deliver(PlayerConnection player, Object message)
+    {
+        if(currentRound != null)
+        {
+            // Whatever the open phase refuses is late, repeated or meant for another phase.
+            if(!currentRound.offer(player, message))
+                System.out.println("Discarding " + message + " from " 
+                        + player.getPlayerName() + "; it does not answer this phase.");
+            
+            return;
         }
-        catch(NullPointerException | IOException e)
+        
+        if(lateAnswers != null && lateAnswers.contains(message))
         {
-            System.err.println(e.toString());
+            System.out.println("Discarding " + message + " from " 
+                    + player.getPlayerName() + "; its phase has closed.");
+            
+            return;
         }
+        
+        if(!player.offerMessage(message))
+            System.err.println("Discarding message from " + player.getPlayerName() 
+                    + "; too many messages are pending.");
     }
     
-    private void broadcastUtility(Object message)
+    private synchronized RoundCollector openRound(Collection<String> answers)
     {
-        for (int i = 0; i < numConnections; i++) 
+        ArrayList<PlayerConnection> players = new ArrayList<>();
+        
+        for (PlayerConnection player : seated)
+        {
+            if(player.getChannel().isOpen())
+                players.add(player);
+        }
+        
+        currentRound = new RoundCollector(players, answers);
+        currentAnswers = answers;
+        lateAnswers = null;
+        
+        for (PlayerConnection player : players)
         {
-            try 
+            Object message;
+            
+            while((message = player.pollMessage()) != null)
             {
-                PlayerConnection player = connections[i];
+                if(currentRound.offer(player, message))
+                    break;
+            }
+        }
+        
+        return currentRound;
+    }
+    
+    private synchronized void closeRound()
+    {
+        currentRound = null;
+        lateAnswers = currentAnswers;
+        
+        for (PlayerConnection player : seated)
+            player.clearMessages();
+    }
+
+    private boolean awaitRound(final RoundCollector round, long deadline)
+            throws InterruptedException
+    {
+        if(deadline == 0)
+            return round.await();
 
-                ObjectOutputStream out
-                        = (ObjectOutputStream) player.getUtilityStreams()
-                                .getOutStream();
+        TimingWheel.Timeout timeout = deadlineTimer.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                round.expire();
+            }
+        }, deadline, TimeUnit.MILLISECONDS);
 
-                out.writeObject(message);
-                out.flush();
-            } 
-            catch(IOException | NullPointerException e) 
+        try
+        {
+            if(round.await())
+                return true;
+        }
+        finally
+        {
+            timeout.cancel();
+        }
+        
+        for (PlayerConnection player : seated)
+        {
+            if(round.getAnswer(player) == null && player.getChannel().isOpen())
             {
-                System.err.println(e.toString());
-                handleDisconnect(i);
+                System.out.println("Player " + player.getPlayerName() 
+                        + " missed the deadline.");
+                player.getChannel().send(GameCodec.encode(EXPIRED_MESSAGE));
             }
         }
+        
+        return false;
     }
     
-    private void handleDisconnect(int index)
+    private void broadcast(ByteBuffer frame)
     {
-        String playerName = connections[index].getPlayerName();
-        System.out.println("Player " + playerName + " has disconnected");
-        
-        connections[index] = new PlayerConnection();
-        
-        for (int i = index + 1; i < numConnections; i++)
+        try 
+        {
+            for (PlayerConnection player : seated) 
+                player.getChannel().send(frame.duplicate());
+        }
+        catch(NullPointerException npe)
         {
-            connections[index] = connections[i];
-            connections[i] = new PlayerConnection();
+            System.err.println(npe.toString());
         }
+    }
+    
+    Roster getRoster()
+    {
+        return roster;
+    }
+    
+    private void releaseDepartures()
+    {
+        PlayerConnection player;
         
-        if(--numConnections == 0)
-            inProgress = false;
+        while((player = departures.poll()) != null)
+        {
+            synchronized(this)
+            {
+                if(attached.get(player.getPlayerName()) != player)
+                    continue;
+                
+                attached.remove(player.getPlayerName());
+                notifyOccupancy();
+            }
+            
+            closeChannels(player);
+            
+            if(!pendingJoins.remove(player))
+                handleDisconnect(player);
+        }
     }
     
-    private class PlayerMonitor implements Runnable
+    private void end()
     {
-        @Override
-        public void run() 
+        ArrayList<PlayerConnection> players;
+        
+        synchronized(this)
         {
-            broadcastUtility(getCurrentPlayers());
+            ended = true;
+            players = new ArrayList<>(attached.values());
+            attached.clear();
+            
+            if(currentRound != null)
+                currentRound.expire();
         }
+        
+        rosterBroadcaster.unregister(this);
+        
+        for (PlayerConnection player : players)
+            closeChannels(player);
+        
+        pendingJoins.clear();
+        departures.clear();
+        
+        InstanceListener receiver = listener;
+        
+        if(receiver != null)
+            receiver.instanceEnded(this);
+    }
+    
+    private void notifyOccupancy()
+    {
+        InstanceListener receiver = listener;
+        
+        if(receiver != null)
+            receiver.occupancyChanged(this, attached.size());
+    }
+    
+    private void closeChannels(PlayerConnection player)
+    {
+        if(player.getChannel() != null)
+            player.getChannel().close();
+        
+        if(player.getUtilityChannel() != null)
+            player.getUtilityChannel().close();
+    }
+    
+    private void seat(PlayerConnection player)
+    {
+        System.out.println("A player has connected to game instance " 
+                + name + "!");
+        System.out.println("Player " + player.getPlayerName() 
+                + " has joined!");
+        seated.add(player);
+        numConnections = seated.size();
+        roster.join(player.getPlayerName());
+    }
+    
+    private void handleDisconnect(PlayerConnection player)
+    {
+        if(!seated.remove(player))
+            return;
+        
+        System.out.println("Player " + player.getPlayerName() + " has disconnected");
+        roster.leave(player.getPlayerName());
+        numConnections = seated.size();
+        
+        if(numConnections == 0)
+            inProgress = false;
     }
-}
\ No newline at end of file
+}
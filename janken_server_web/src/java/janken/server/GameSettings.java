@@ -0,0 +1,227 @@
+package janken.server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is a container for the settings shared by all
+ * game instances on the server, such as how many players an
+ * instance can hold, how long a round
+ * waits for its players and what happens to those that
+ * fail to answer in time.
+ *
+ * <p> Each phase of a round has its own deadline and expiry
+ * policy. A player that has not answered when the deadline
+ * passes is either treated as having voted to wait
+ * ({@value #WAIT}) or sits the phase out entirely
+ * ({@value #FORFEIT}). During the choice phase, waiting means
+ * that the round is called off and the instance returns to
+ * the ready vote, while forfeiting means that the round is
+ * resolved among the players that made a choice.
+ *
+ * <p> Rounds are resolved by a {@link RuleSet}. When several
+ * players share the top score, the round is either a draw
+ * ({@value #TIE_DRAW}), won by whichever of them joined first
+ * ({@value #TIE_FIRST}), or won by all of them together
+ * ({@value #TIE_SHARED}).
+ *
+ * @author Rikard Nordström
+ * @see GameInstanceHandler
+ */
+public class GameSettings
+{
+    /** Treats a missing answer as a vote to wait. */
+    public static final String WAIT = "wait";
+    /** Lets a player with a missing answer sit the phase out. */
+    public static final String FORFEIT = "forfeit";
+    /** Ends a tied round without a winner. */
+    public static final String TIE_DRAW = "draw";
+    /** Awards a tied round to the tied player that joined first. */
+    public static final String TIE_FIRST = "first";
+    /** Awards a tied round to every tied player. */
+    public static final String TIE_SHARED = "shared";
+    private int capacity = 4;
+    private long readyDeadline = TimeUnit.SECONDS.toMillis(60);
+    private String readyExpiry = WAIT;
+    private long choiceDeadline = TimeUnit.SECONDS.toMillis(30);
+    private String choiceExpiry = FORFEIT;
+    private RuleSet ruleSet = RuleSet.CLASSIC;
+    private String tiePolicy = TIE_FIRST;
+
+    /**
+     * Retrieves the number of players that each new instance can hold.
+     *
+     * @return the capacity of new instances.
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Sets the number of players that each new instance can hold.
+     * Instances that already exist keep their capacity.
+     *
+     * @param capacity the capacity, which is at least two.
+     */
+    public void setCapacity(int capacity)
+    {
+        this.capacity = Math.max(2, capacity);
+    }
+
+    /**
+     * Retrieves the deadline of the ready vote.
+     *
+     * @return the deadline in milliseconds, or zero if
+     *         the vote waits indefinitely.
+     */
+    public long getReadyDeadline()
+    {
+        return readyDeadline;
+    }
+
+    /**
+     * Sets the deadline of the ready vote.
+     *
+     * @param readyDeadline the deadline in milliseconds, or
+     *                      zero to wait indefinitely.
+     */
+    public void setReadyDeadline(long readyDeadline)
+    {
+        this.readyDeadline = Math.max(0, readyDeadline);
+    }
+
+    /**
+     * Used to check if a missing ready vote counts as a vote to wait.
+     *
+     * @return <tt>true</tt> if a missing vote counts as a vote
+     *         to wait and <tt>false</tt> if it is not counted.
+     */
+    public boolean isReadyExpiryWait()
+    {
+        return WAIT.equals(readyExpiry);
+    }
+
+    /**
+     * Sets the expiry policy of the ready vote.
+     *
+     * @param readyExpiry either {@value #WAIT} or {@value #FORFEIT}.
+     */
+    public void setReadyExpiry(String readyExpiry)
+    {
+        this.readyExpiry = checkPolicy(readyExpiry, WAIT);
+    }
+
+    /**
+     * Retrieves the deadline of the choice phase.
+     *
+     * @return the deadline in milliseconds, or zero if
+     *         the phase waits indefinitely.
+     */
+    public long getChoiceDeadline()
+    {
+        return choiceDeadline;
+    }
+
+    /**
+     * Sets the deadline of the choice phase.
+     *
+     * @param choiceDeadline the deadline in milliseconds, or
+     *                       zero to wait indefinitely.
+     */
+    public void setChoiceDeadline(long choiceDeadline)
+    {
+        this.choiceDeadline = Math.max(0, choiceDeadline);
+    }
+
+    /**
+     * Used to check if a missing choice calls the round off.
+     *
+     * @return <tt>true</tt> if a missing choice calls the round
+     *         off and <tt>false</tt> if the player forfeits.
+     */
+    public boolean isChoiceExpiryWait()
+    {
+        return WAIT.equals(choiceExpiry);
+    }
+
+    /**
+     * Sets the expiry policy of the choice phase.
+     *
+     * @param choiceExpiry either {@value #WAIT} or {@value #FORFEIT}.
+     */
+    public void setChoiceExpiry(String choiceExpiry)
+    {
+        this.choiceExpiry = checkPolicy(choiceExpiry, FORFEIT);
+    }
+
+    /**
+     * Retrieves the rules that rounds are resolved by.
+     *
+     * @return the rule set.
+     * @see RuleSet
+     */
+    public RuleSet getRuleSet()
+    {
+        return ruleSet;
+    }
+
+    /**
+     * Sets the rules that rounds are resolved by.
+     *
+     * @param ruleSet the name of a built-in rule set.
+     * @see RuleSet#forName(String)
+     */
+    public void setRuleSet(String ruleSet)
+    {
+        RuleSet rules = RuleSet.forName(ruleSet);
+
+        if(rules == null && ruleSet != null)
+            System.err.println("Unknown rule set " + ruleSet
+                    + "; using " + RuleSet.CLASSIC.getName() + ".");
+
+        this.ruleSet = rules == null ? RuleSet.CLASSIC : rules;
+    }
+
+    /**
+     * Retrieves the policy for rounds with several top scorers.
+     *
+     * @return {@value #TIE_DRAW}, {@value #TIE_FIRST} or {@value #TIE_SHARED}.
+     */
+    public String getTiePolicy()
+    {
+        return tiePolicy;
+    }
+
+    /**
+     * Sets the policy for rounds with several top scorers.
+     *
+     * @param tiePolicy {@value #TIE_DRAW}, {@value #TIE_FIRST}
+     *                  or {@value #TIE_SHARED}.
+     */
+    public void setTiePolicy(String tiePolicy)
+    {
+        if(TIE_DRAW.equals(tiePolicy) || TIE_FIRST.equals(tiePolicy)
+                || TIE_SHARED.equals(tiePolicy))
+            this.tiePolicy = tiePolicy;
+        else
+        {
+            if(tiePolicy != null)
+                System.err.println("Unknown tie policy " + tiePolicy
+                        + "; using " + TIE_FIRST + ".");
+
+            this.tiePolicy = TIE_FIRST;
+        }
+    }
+
+    private static String checkPolicy(String policy, String defaultPolicy)
+    {
+        if(WAIT.equals(policy) || FORFEIT.equals(policy))
+            return policy;
+
+        if(policy != null)
+            System.err.println("Unknown expiry policy " + policy
+                    + "; using " + defaultPolicy + ".");
+
+        return defaultPolicy;
+    }
+}
@@ -0,0 +1,412 @@
+package janken.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class represents the network transport shared by all
+ * game instances on the server. A single server socket listens
+ * on one well-known port, and all client connections are
+ * serviced by a small, fixed number of non-blocking selector
+ * loops rather than by threads and sockets owned by each
+ * game instance.
+ *
+ * <p> The first frame sent on any new connection is a handshake,
+ * which names the game instance and player that the connection
+ * belongs to and whether it is the player's primary or secondary
+ * connection. Once the handshake has been accepted, all further
+ * frames on the connection are delivered to the named instance.
+ * The handshake also carries the session token that the player
+ * was issued at login, which is verified in memory; a connection
+ * whose token does not name its player is refused.
+ *
+ * <p> Each selector loop also sweeps its connections for
+ * idleness once a second. A connection that has received
+ * nothing within the idle timeout is reported to its listener,
+ * which decides whether to close it. Connections that never
+ * complete their handshake are simply closed.
+ *
+ * @author Rikard Nordström
+ * @see FramedChannel
+ * @see GameInstanceHandler
+ * @see SessionTokens
+ */
+public class GameTransport implements FrameListener
+{
+    private static final long SWEEP_INTERVAL = 1000;
+    private final int port;
+    private final int connectionBudget;
+    private final long idleTimeout;
+    private final AtomicLong idleClosures = new AtomicLong();
+    private final SelectorLoop[] loops;
+    private final InstanceRegistry instances;
+    private final SessionTokens sessionTokens;
+    private final AtomicLong unauthenticated = new AtomicLong();
+    private ServerSocketChannel serverChannel;
+    private int nextLoop;
+    private volatile boolean running;
+
+    /**
+     * Creates a game transport. No resources are
+     * allocated until the transport is started.
+     *
+     * @param port the port to listen on.
+     * @param numSelectors the number of selector loops.
+     * @param connectionBudget the most bytes that any single
+     *                         connection may retain at once.
+     * @param idleTimeout the time in milliseconds after which a
+     *                    silent connection is considered idle, or
+     *                    zero to never check for idleness.
+     * @param instances the game instances that connections
+     *                  may be routed to.
+     * @param sessionTokens the issuer of the tokens that
+     *                      connecting players must present.
+     * @see InstanceRegistry
+     * @see SessionTokens
+     */
+    public GameTransport(int port, int numSelectors, int connectionBudget, long idleTimeout,
+            InstanceRegistry instances, SessionTokens sessionTokens)
+    {
+        this.port = port;
+        this.connectionBudget = connectionBudget;
+        this.idleTimeout = idleTimeout;
+        this.loops = new SelectorLoop[Math.max(1, numSelectors)];
+        this.instances = instances;
+        this.sessionTokens = sessionTokens;
+    }
+
+    /**
+     * Binds the server socket and starts all selector loops.
+     *
+     * @param executor the executor that runs the selector loops.
+     * @throws IOException if the port could not be bound.
+     * @see ExecutorService
+     */
+    public void start(ExecutorService executor) throws IOException
+    {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.bind(new InetSocketAddress(port));
+
+        for (int i = 0; i < loops.length; i++)
+            loops[i] = new SelectorLoop(Selector.open());
+
+        serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        running = true;
+
+        for (SelectorLoop loop : loops)
+            executor.submit(loop);
+
+        System.out.println("Game transport listening on port " + port
+                + " using " + loops.length + " selector(s).");
+    }
+
+    /**
+     * Stops all selector loops and releases the server socket.
+     * Open client connections are closed as a consequence.
+     */
+    public void stop()
+    {
+        running = false;
+
+        for (SelectorLoop loop : loops)
+        {
+            if(loop != null)
+                loop.selector.wakeup();
+        }
+
+        try
+        {
+            if(serverChannel != null)
+                serverChannel.close();
+        }
+        catch(IOException ioe)
+        {
+            System.err.println(ioe.toString());
+        }
+    }
+
+    /**
+     * Retrieves the port that the transport listens on.
+     *
+     * @return the transport's port.
+     */
+    public int getPort()
+    {
+        return port;
+    }
+
+    /**
+     * Retrieves the number of connections that have been closed
+     * for idleness since the transport was started.
+     *
+     * @return the number of idle connections closed.
+     */
+    public long getIdleClosures()
+    {
+        return idleClosures.get();
+    }
+
+    /**
+     * Retrieves the number of connections that have been refused
+     * for lacking a valid session token since the transport
+     * was started.
+     *
+     * @return the number of connections refused.
+     */
+    public long getUnauthenticatedClosures()
+    {
+        return unauthenticated.get();
+    }
+
+    /**
+     * Handles the handshake frame of a new connection.
+     * A connection that fails the handshake is closed.
+     *
+     * @param channel the connection.
+     * @param frame the handshake payload.
+     */
+    @Override
+    public void frameReceived(FramedChannel channel, ByteBuffer frame)
+    {
+        try
+        {
+            GameCodec.Handshake handshake = GameCodec.decodeHandshake(frame);
+            String instanceName = handshake.getInstanceName();
+            String playerName = handshake.getPlayerName();
+
+            if(!playerName.equals(sessionTokens.verify(handshake.getToken())))
+            {
+                System.out.println("Refused unauthenticated connection from "
+                        + playerName + ".");
+                unauthenticated.incrementAndGet();
+                channel.close();
+
+                return;
+            }
+
+            GameInstanceHandler instance = instances.get(instanceName);
+
+            if(instance != null 
+                    && instance.attach(playerName, channel, handshake.isUtility()))
+                return;
+
+            System.out.println("Rejected connection from " + playerName
+                    + " to game instance " + instanceName + ".");
+        }
+        catch(IOException ioe)
+        {
+            System.err.println("Malformed handshake: " + ioe.toString());
+        }
+
+        channel.close();
+    }
+
+    /**
+     * Closes a connection that has not completed its handshake
+     * within the idle timeout.
+     *
+     * @param channel the idle connection.
+     */
+    @Override
+    public void channelIdle(FramedChannel channel)
+    {
+        System.out.println("Closing a connection that never completed its handshake.");
+        channel.close();
+    }
+
+    @Override
+    public void channelClosed(FramedChannel channel)
+    {
+        // Nothing has been attached to a connection before its handshake.
+    }
+
+    private void accept()
+    {
+        try
+        {
+            SocketChannel client;
+
+            while((client = serverChannel.accept()) != null)
+            {
+                client.configureBlocking(false);
+                client.socket().setTcpNoDelay(true);
+
+                SelectorLoop loop = loops[nextLoop];
+                nextLoop = (nextLoop + 1) % loops.length;
+                loop.register(new FramedChannel(client, loop, this, connectionBudget));
+            }
+        }
+        catch(IOException ioe)
+        {
+            System.err.println(ioe.toString());
+        }
+    }
+
+    /**
+     * This class represents a single selector thread. Channels
+     * are registered with, and write interest is requested from,
+     * other threads through queues that the loop drains
+     * after every wakeup.
+     */
+    class SelectorLoop implements Runnable
+    {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<FramedChannel> registrations =
+                new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<FramedChannel> writeRequests =
+                new ConcurrentLinkedQueue<>();
+
+        private SelectorLoop(Selector selector)
+        {
+            this.selector = selector;
+        }
+
+        void register(FramedChannel channel)
+        {
+            registrations.add(channel);
+            selector.wakeup();
+        }
+
+        void requestWrite(FramedChannel channel)
+        {
+            writeRequests.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run()
+        {
+            long nextSweep = System.currentTimeMillis() + SWEEP_INTERVAL;
+
+            try
+            {
+                while(running)
+                {
+                    if(idleTimeout > 0)
+                        selector.select(SWEEP_INTERVAL);
+                    else
+                        selector.select();
+
+                    processQueues();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+                    while(keys.hasNext())
+                    {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+
+                        if(!key.isValid())
+                            continue;
+
+                        if(key.isAcceptable())
+                        {
+                            accept();
+                            continue;
+                        }
+
+                        FramedChannel channel = (FramedChannel) key.attachment();
+
+                        if(key.isReadable())
+                            channel.handleRead();
+
+                        if(key.isValid() && key.isWritable())
+                            channel.handleWrite();
+                    }
+
+                    long now = System.currentTimeMillis();
+
+                    if(idleTimeout > 0 && now >= nextSweep)
+                    {
+                        sweepIdle(now);
+                        nextSweep = now + SWEEP_INTERVAL;
+                    }
+                }
+            }
+            catch(IOException | ClosedSelectorException e)
+            {
+                e.printStackTrace(System.err);
+            }
+            finally
+            {
+                shutdown();
+            }
+        }
+
+        private void processQueues()
+        {
+            FramedChannel channel;
+
+            while((channel = registrations.poll()) != null)
+            {
+                try
+                {
+                    SocketChannel socketChannel = channel.getSocketChannel();
+                    channel.setKey(socketChannel.register(selector,
+                            SelectionKey.OP_READ, channel));
+                }
+                catch(IOException ioe)
+                {
+                    channel.close();
+                }
+            }
+
+            while((channel = writeRequests.poll()) != null)
+            {
+                SelectionKey key = channel.getKey();
+
+                if(key != null && key.isValid() && channel.hasPendingWrites())
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        }
+
+        private void sweepIdle(long now)
+        {
+            for (SelectionKey key : selector.keys())
+            {
+                if(!key.isValid() || !(key.attachment() instanceof FramedChannel))
+                    continue;
+
+                FramedChannel channel = (FramedChannel) key.attachment();
+
+                if(now - channel.getLastActivity() >= idleTimeout)
+                {
+                    channel.notifyIdle();
+
+                    if(!channel.isOpen())
+                        idleClosures.incrementAndGet();
+                }
+            }
+        }
+
+        private void shutdown()
+        {
+            for (SelectionKey key : selector.keys())
+            {
+                if(key.attachment() instanceof FramedChannel)
+                    ((FramedChannel) key.attachment()).close();
+            }
+
+            try
+            {
+                selector.close();
+            }
+            catch(IOException ioe)
+            {
+                System.err.println(ioe.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package janken.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class creates the executor that runs game instances.
+ * Instances spend nearly all of their time waiting for players
+ * and messages, so the number of instances that a platform
+ * thread pool can host is bounded by the size of the pool.
+ *
+ * <p> Two execution modes are supported: {@value #MANAGED},
+ * which runs every instance on the container's managed pool, and
+ * {@value #VIRTUAL}, which runs every instance on a virtual thread
+ * of its own. Virtual threads require a Java 21 runtime and are
+ * looked up reflectively, so the server still builds and runs on
+ * older runtimes, where the managed pool is used instead.
+ *
+ * <p> Tasks running on virtual threads are not managed by the
+ * container, so they must not depend on container context
+ * beyond calls to injected EJB references.
+ *
+ * @author Rikard Nordström
+ */
+public class InstanceExecutors
+{
+    /** Runs every instance on the container's managed pool. */
+    public static final String MANAGED = "managed";
+    /** Runs every instance on a virtual thread of its own. */
+    public static final String VIRTUAL = "virtual";
+
+    /**
+     * Creates an executor for the given execution mode.
+     *
+     * @param mode the execution mode, either {@value #MANAGED}
+     *             or {@value #VIRTUAL}.
+     * @param managedPool the container's managed pool.
+     * @return an executor for the mode, or the managed pool if the
+     *         mode is unknown or unsupported by the runtime.
+     * @see ExecutorService
+     */
+    public static ExecutorService create(String mode, ExecutorService managedPool)
+    {
+        if(VIRTUAL.equals(mode))
+        {
+            try
+            {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                System.out.println("Game instances will run on virtual threads.");
+
+                return (ExecutorService) factory.invoke(null);
+            }
+            catch(ReflectiveOperationException roe)
+            {
+                System.err.println("Virtual threads are not supported by this runtime; "
+                        + "falling back to the managed pool.");
+            }
+        }
+        else if(mode != null && !MANAGED.equals(mode))
+            System.err.println("Unknown execution mode " + mode
+                    + "; falling back to the managed pool.");
+
+        System.out.println("Game instances will run on the managed pool.");
+
+        return managedPool;
+    }
+}
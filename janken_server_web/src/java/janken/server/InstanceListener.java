@@ -0,0 +1,33 @@
+package janken.server;
+
+/**
+ * This interface represents a receiver of events from game
+ * instances, such as the lobby's instance registry. Events
+ * from a single instance are delivered one at a time. Changes
+ * in occupancy are delivered while the instance holds its own
+ * lock, so implementations must never block or call back into
+ * the instance. The end of an instance is delivered after it
+ * has released its lock, and after its last change in occupancy.
+ *
+ * @author Rikard Nordström
+ * @see GameInstanceHandler
+ */
+public interface InstanceListener
+{
+    /**
+     * Called whenever a player takes or frees a slot in an instance.
+     *
+     * @param instance the instance.
+     * @param numPlayers the number of slots now taken.
+     */
+    void occupancyChanged(GameInstanceHandler instance, int numPlayers);
+
+    /**
+     * Called once when an instance has ended and released
+     * all of its connections, without holding the
+     * instance's lock.
+     *
+     * @param instance the instance.
+     */
+    void instanceEnded(GameInstanceHandler instance);
+}
@@ -0,0 +1,490 @@
+package janken.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class represents the registry of all game instances on the
+ * server. It may be read and modified by any number of threads at
+ * once without locking, and it never throws
+ * {@link java.util.ConcurrentModificationException} while a
+ * concurrent modification is in progress.
+ *
+ * <p> In addition to the instances themselves, the registry keeps
+ * the number of taken slots of each instance, as reported by the
+ * instance, and an index of the open instances: those that have
+ * at least one player and at least one free slot. Listing the open
+ * instances and checking whether an instance may be joined are
+ * therefore served without visiting every instance.
+ *
+ * <p> The list of open instances is also kept as a serialized
+ * snapshot, ready to be written to a client as is. The snapshot
+ * carries the version of the index that it was built from, and is
+ * rebuilt, at most once per change, only when the index has changed
+ * since and the listing is requested.
+ *
+ * <p> For browsing, every instance with at least one player is
+ * also kept in a bucket according to its number of free slots and
+ * whether it is in progress, that is, whether it has enough players
+ * to play rounds. Buckets are visited in order of free slots, and
+ * names in name order within each bucket, so a page of instances
+ * matching a filter is found by visiting only the buckets that the
+ * filter admits and only as many names as fit on the page.
+ *
+ * <p> Instances remove themselves from the registry as soon
+ * as they end, by notifying it as their listener. The registry
+ * passes every event on to a listener of its own, if it has one,
+ * once the event has been applied to the registry.
+ *
+ * @author Rikard Nordström
+ * @see GameInstanceHandler
+ */
+public class InstanceRegistry implements InstanceListener
+{
+    /** Page key holding the names of the instances on a page. */
+    public static final String PAGE_INSTANCES = "instances";
+    /** Page key holding the free slots of the instances on a page. */
+    public static final String PAGE_OPEN_SLOTS = "openSlots";
+    /** Page key holding the cursor of the next page, if there is one. */
+    public static final String PAGE_CURSOR = "cursor";
+    private static final int MIN_PLAYERS_IN_PROGRESS = 2;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<String> openInstances = new ConcurrentSkipListSet<>();
+    private final AtomicInteger openVersion = new AtomicInteger();
+    private final ConcurrentSkipListMap<Integer, ConcurrentSkipListSet<String>> buckets =
+            new ConcurrentSkipListMap<>();
+    private volatile Listing listing = new Listing(-1, new byte[0]);
+    private volatile InstanceListener listener;
+
+    /**
+     * Sets the listener that every instance event is
+     * passed on to. The listener must never block.
+     *
+     * @param listener the listener.
+     * @see InstanceListener
+     */
+    public void setListener(InstanceListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Registers an instance under its name, unless an
+     * instance by that name is already registered.
+     *
+     * @param instance the instance to register.
+     * @return <tt>true</tt> if the instance was registered
+     *         and <tt>false</tt> if the name is taken.
+     */
+    public boolean register(GameInstanceHandler instance)
+    {
+        if(entries.putIfAbsent(instance.getName(), new Entry(instance)) != null)
+            return false;
+
+        instance.setListener(this);
+
+        return true;
+    }
+
+    /**
+     * Removes an instance from the registry.
+     *
+     * @param name the name of the instance.
+     * @return the removed instance or <tt>null</tt>
+     *         if no such instance was registered.
+     */
+    public GameInstanceHandler unregister(String name)
+    {
+        Entry entry = entries.remove(name);
+
+        if(entry == null)
+            return null;
+
+        closeInstance(name);
+        removeFromBucket(name, entry);
+
+        if(listener != null)
+            listener.instanceEnded(entry.instance);
+
+        return entry.instance;
+    }
+
+    /**
+     * Retrieves a registered instance by name.
+     *
+     * @param name the name of the instance.
+     * @return the instance or <tt>null</tt> if
+     *         no such instance is registered.
+     */
+    public GameInstanceHandler get(String name)
+    {
+        Entry entry = name == null ? null : entries.get(name);
+
+        return entry == null ? null : entry.instance;
+    }
+
+    /**
+     * Used to check if an instance exists and has a free slot.
+     *
+     * @param name the name of the instance.
+     * @return <tt>true</tt> if the instance may be joined
+     *         and <tt>false</tt> otherwise.
+     */
+    public boolean isJoinable(String name)
+    {
+        Entry entry = name == null ? null : entries.get(name);
+
+        return entry != null && entry.numPlayers < entry.instance.getCapacity();
+    }
+
+    /**
+     * Retrieves the number of slots taken in an instance.
+     *
+     * @param name the name of the instance.
+     * @return the number of players, or <tt>-1</tt> if
+     *         no such instance is registered.
+     */
+    public int getNumPlayers(String name)
+    {
+        Entry entry = name == null ? null : entries.get(name);
+
+        return entry == null ? -1 : entry.numPlayers;
+    }
+
+    /**
+     * Retrieves the names of all open instances, in name order.
+     *
+     * @return a list of the open instances' names.
+     * @see ArrayList
+     */
+    public ArrayList<String> getOpenInstanceNames()
+    {
+        return new ArrayList<>(openInstances);
+    }
+
+    /**
+     * Retrieves the names of all open instances as a serialized
+     * {@link ArrayList} of strings, in name order. The returned
+     * array is shared and must not be modified.
+     *
+     * @return the serialized list of open instances.
+     */
+    public byte[] getOpenInstanceListing()
+    {
+        return getListing().bytes;
+    }
+
+    /**
+     * Retrieves a page of the instances that have at least one player,
+     * ordered by the number of free slots and then by name. The page
+     * is returned as a map holding a list of names under
+     * {@link #PAGE_INSTANCES}, a list of the same length holding the
+     * number of free slots of each instance under
+     * {@link #PAGE_OPEN_SLOTS} and, unless the page is the last one,
+     * the cursor of the next page under {@link #PAGE_CURSOR}.
+     *
+     * @param minFree the least number of free slots to include.
+     * @param maxFree the most number of free slots to include.
+     * @param prefix the prefix that names must start with, or
+     *               <tt>null</tt> to include all names.
+     * @param inProgress <tt>true</tt> to include only instances in
+     *                   progress, <tt>false</tt> to include only those
+     *                   still waiting for players, or <tt>null</tt>
+     *                   to include both.
+     * @param cursor the cursor returned with the previous page,
+     *               or <tt>null</tt> for the first page.
+     * @param limit the most number of instances on the page.
+     * @return the page.
+     * @see HashMap
+     */
+    public HashMap<String, Object> getPage(int minFree, int maxFree, String prefix,
+            Boolean inProgress, String cursor, int limit)
+    {
+        ArrayList<String> names = new ArrayList<>();
+        ArrayList<Integer> openSlots = new ArrayList<>();
+        HashMap<String, Object> page = new HashMap<>();
+        int fromKey = bucketKey(Math.max(0, minFree), false);
+        int toKey = bucketKey(Math.min(maxFree, Integer.MAX_VALUE / 2 - 1), true);
+        int lastKey = -1;
+        int cursorKey = -1;
+        String cursorName = null;
+
+        page.put(PAGE_INSTANCES, names);
+        page.put(PAGE_OPEN_SLOTS, openSlots);
+
+        if(cursor != null)
+        {
+            int separator = cursor.indexOf(':');
+
+            try
+            {
+                cursorKey = Integer.parseInt(cursor.substring(0, separator));
+                cursorName = cursor.substring(separator + 1);
+                fromKey = Math.max(fromKey, cursorKey);
+            }
+            catch(NumberFormatException | IndexOutOfBoundsException e)
+            {
+                System.err.println("Invalid cursor: " + cursor + ".");
+            }
+        }
+
+        if(limit <= 0 || fromKey > toKey)
+            return page;
+
+        for (Map.Entry<Integer, ConcurrentSkipListSet<String>> bucket 
+                : buckets.subMap(fromKey, true, toKey, true).entrySet())
+        {
+            int key = bucket.getKey();
+
+            if(inProgress != null && isInProgress(key) != inProgress)
+                continue;
+
+            NavigableSet<String> range = select(bucket.getValue(), prefix,
+                    key == cursorKey ? cursorName : null);
+
+            for (String name : range)
+            {
+                if(names.size() == limit)
+                {
+                    page.put(PAGE_CURSOR, lastKey + ":" + names.get(limit - 1));
+
+                    return page;
+                }
+
+                names.add(name);
+                openSlots.add(key / 2);
+                lastKey = key;
+            }
+        }
+
+        return page;
+    }
+
+    /**
+     * Retrieves the version of the open-instance index, which
+     * changes whenever an instance opens or closes.
+     *
+     * @return the version of the index.
+     */
+    public int getOpenInstanceVersion()
+    {
+        return openVersion.get();
+    }
+
+    /**
+     * Retrieves all registered instances.
+     *
+     * @return a snapshot of the instances.
+     * @see Collection
+     */
+    public Collection<GameInstanceHandler> getInstances()
+    {
+        ArrayList<GameInstanceHandler> instances = new ArrayList<>(entries.size());
+
+        for (Entry entry : entries.values())
+            instances.add(entry.instance);
+
+        return instances;
+    }
+
+    /**
+     * Retrieves the number of registered instances.
+     *
+     * @return the number of instances.
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    @Override
+    public void occupancyChanged(GameInstanceHandler instance, int numPlayers)
+    {
+        String name = instance.getName();
+        Entry entry = entries.get(name);
+
+        if(entry == null || entry.instance != instance)
+            return;
+
+        int capacity = instance.getCapacity();
+
+        synchronized(entry)
+        {
+            entry.numPlayers = numPlayers;
+            removeFromBucket(name, entry);
+
+            if(numPlayers > 0)
+            {
+                entry.bucket = bucketKey(capacity - numPlayers, 
+                        numPlayers >= MIN_PLAYERS_IN_PROGRESS);
+                getBucket(entry.bucket).add(name);
+            }
+        }
+
+        if(numPlayers > 0 && numPlayers < capacity)
+        {
+            if(openInstances.add(name))
+                openVersion.incrementAndGet();
+        }
+        else
+            closeInstance(name);
+
+        // The instance may have been unregistered in the meantime.
+        if(entries.get(name) != entry)
+        {
+            closeInstance(name);
+            removeFromBucket(name, entry);
+        }
+        else if(listener != null)
+            listener.occupancyChanged(instance, numPlayers);
+    }
+
+    @Override
+    public void instanceEnded(GameInstanceHandler instance)
+    {
+        Entry entry = entries.get(instance.getName());
+
+        if(entry != null && entry.instance == instance 
+                && entries.remove(instance.getName(), entry))
+        {
+            closeInstance(instance.getName());
+            removeFromBucket(instance.getName(), entry);
+            System.out.println("Removed " + instance.getName() 
+                    + "; number of instances is now " + entries.size() + ".");
+
+            if(listener != null)
+                listener.instanceEnded(instance);
+        }
+    }
+
+    private void closeInstance(String name)
+    {
+        if(openInstances.remove(name))
+            openVersion.incrementAndGet();
+    }
+
+    private void removeFromBucket(String name, Entry entry)
+    {
+        synchronized(entry)
+        {
+            if(entry.bucket >= 0)
+                getBucket(entry.bucket).remove(name);
+
+            entry.bucket = -1;
+        }
+    }
+
+    private ConcurrentSkipListSet<String> getBucket(int key)
+    {
+        ConcurrentSkipListSet<String> bucket = buckets.get(key);
+
+        if(bucket == null)
+        {
+            bucket = new ConcurrentSkipListSet<>();
+            ConcurrentSkipListSet<String> existing = buckets.putIfAbsent(key, bucket);
+
+            if(existing != null)
+                bucket = existing;
+        }
+
+        return bucket;
+    }
+
+    private static NavigableSet<String> select(NavigableSet<String> names, String prefix,
+            String after)
+    {
+        String from = after;
+        boolean fromInclusive = false;
+
+        if(prefix != null && (from == null || from.compareTo(prefix) < 0))
+        {
+            from = prefix;
+            fromInclusive = true;
+        }
+
+        if(prefix == null)
+            return from == null ? names : names.tailSet(from, fromInclusive);
+
+        String to = prefix + Character.MAX_VALUE;
+
+        if(from.compareTo(to) > 0)
+            return new ConcurrentSkipListSet<>();
+
+        return names.subSet(from, fromInclusive, to, true);
+    }
+
+    private static int bucketKey(int freeSlots, boolean inProgress)
+    {
+        return freeSlots * 2 + (inProgress ? 1 : 0);
+    }
+
+    private static boolean isInProgress(int bucketKey)
+    {
+        return bucketKey % 2 == 1;
+    }
+
+    private Listing getListing()
+    {
+        Listing current = listing;
+
+        if(current.version == openVersion.get())
+            return current;
+
+        synchronized(this)
+        {
+            int version = openVersion.get();
+
+            if(listing.version == version)
+                return listing;
+
+            try
+            {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ObjectOutputStream outStream = new ObjectOutputStream(bytes);
+                outStream.writeObject(new ArrayList<>(openInstances));
+                outStream.close();
+                listing = new Listing(version, bytes.toByteArray());
+            }
+            catch(IOException ioe)
+            {
+                ioe.printStackTrace(System.err);
+            }
+
+            return listing;
+        }
+    }
+
+    private static class Listing
+    {
+        private final int version;
+        private final byte[] bytes;
+
+        private Listing(int version, byte[] bytes)
+        {
+            this.version = version;
+            this.bytes = bytes;
+        }
+    }
+
+    private static class Entry
+    {
+        private final GameInstanceHandler instance;
+        private volatile int numPlayers;
+        private int bucket = -1;
+
+        private Entry(GameInstanceHandler instance)
+        {
+            this.instance = instance;
+        }
+    }
+}
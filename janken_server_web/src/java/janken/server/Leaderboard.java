@@ -0,0 +1,273 @@
+package janken.server;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class ranks every player on the server by total score,
+ * without consulting the database. It is loaded once at startup
+ * and then kept up to date by applying each score change as it
+ * is written.
+ *
+ * <p> Players are counted per score in a Fenwick tree, so that the
+ * number of players above any score, and thereby a player's rank,
+ * is found in time logarithmic in the highest score. Players are
+ * also grouped by score in a sorted map, from which the top players
+ * are read in order. Players with equal scores share a rank, and
+ * are listed by name.
+ *
+ * @author Rikard Nordström
+ */
+public class Leaderboard
+{
+    private static final int INITIAL_SCORES = 1024;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final HashMap<String, Integer> scores = new HashMap<>();
+    private final TreeMap<Integer, TreeSet<String>> players = new TreeMap<>();
+    private int[] counts = new int[INITIAL_SCORES + 1];
+
+    /**
+     * Replaces the contents of the leaderboard.
+     *
+     * @param playerScores every player's total score.
+     * @see Map
+     */
+    public void load(Map<String, Integer> playerScores)
+    {
+        lock.writeLock().lock();
+
+        try
+        {
+            scores.clear();
+            players.clear();
+            Arrays.fill(counts, 0);
+
+            for (Map.Entry<String, Integer> entry : playerScores.entrySet())
+                insert(entry.getKey(), entry.getValue());
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a player to the leaderboard, unless it is already ranked.
+     *
+     * @param playerName the player's username.
+     * @param score the player's total score.
+     */
+    public void addPlayer(String playerName, int score)
+    {
+        lock.writeLock().lock();
+
+        try
+        {
+            if(playerName != null && !scores.containsKey(playerName))
+                insert(playerName, score);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds an amount to a ranked player's score. Players that
+     * are not ranked are ignored, just as the database ignores
+     * increments for players that do not exist.
+     *
+     * @param playerName the player's username.
+     * @param amount the amount to add to the player's score.
+     */
+    public void increment(String playerName, int amount)
+    {
+        lock.writeLock().lock();
+
+        try
+        {
+            Integer score = scores.get(playerName);
+
+            if(score != null && amount != 0)
+            {
+                remove(playerName, score);
+                insert(playerName, score + amount);
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieves the players with the highest scores.
+     *
+     * @param limit the most players to retrieve.
+     * @return the players and their scores, highest score first.
+     * @see LinkedHashMap
+     */
+    public LinkedHashMap<String, Integer> getTop(int limit)
+    {
+        LinkedHashMap<String, Integer> top = new LinkedHashMap<>();
+
+        lock.readLock().lock();
+
+        try
+        {
+            for (Map.Entry<Integer, TreeSet<String>> entry
+                    : players.descendingMap().entrySet())
+            {
+                for (String playerName : entry.getValue())
+                {
+                    if(top.size() >= limit)
+                        return top;
+
+                    top.put(playerName, entry.getKey());
+                }
+            }
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+
+        return top;
+    }
+
+    /**
+     * Retrieves a player's rank, which is one more than the number
+     * of players with a higher score.
+     *
+     * @param playerName the player's username.
+     * @return the player's rank, or 0 if the player is not ranked.
+     */
+    public int getRank(String playerName)
+    {
+        lock.readLock().lock();
+
+        try
+        {
+            Integer score = scores.get(playerName);
+
+            if(score == null)
+                return 0;
+
+            return scores.size() - countAtMost(score) + 1;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieves a player's score.
+     *
+     * @param playerName the player's username.
+     * @return the player's score, or <tt>null</tt> if
+     *         the player is not ranked.
+     */
+    public Integer getScore(String playerName)
+    {
+        lock.readLock().lock();
+
+        try
+        {
+            return scores.get(playerName);
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieves the number of ranked players.
+     *
+     * @return the number of players.
+     */
+    public int size()
+    {
+        lock.readLock().lock();
+
+        try
+        {
+            return scores.size();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void insert(String playerName, int score)
+    {
+        // Negative scores are ranked as 0.
+        score = Math.max(0, score);
+
+        if(score >= counts.length - 1)
+            grow(score);
+
+        scores.put(playerName, score);
+
+        TreeSet<String> names = players.get(score);
+
+        if(names == null)
+        {
+            names = new TreeSet<>();
+            players.put(score, names);
+        }
+
+        names.add(playerName);
+        update(score, 1);
+    }
+
+    private void remove(String playerName, int score)
+    {
+        scores.remove(playerName);
+
+        TreeSet<String> names = players.get(score);
+        names.remove(playerName);
+
+        if(names.isEmpty())
+            players.remove(score);
+
+        update(score, -1);
+    }
+
+    private void grow(int score)
+    {
+        int length = counts.length - 1;
+
+        while(length <= score)
+            length *= 2;
+
+        counts = new int[length + 1];
+
+        // New nodes cover the old ones, so the tree is rebuilt rather than copied.
+        for (Map.Entry<Integer, TreeSet<String>> entry : players.entrySet())
+            update(entry.getKey(), entry.getValue().size());
+    }
+
+    private void update(int score, int delta)
+    {
+        for (int i = score + 1; i < counts.length; i += i & -i)
+            counts[i] += delta;
+    }
+
+    private int countAtMost(int score)
+    {
+        int count = 0;
+
+        for (int i = Math.min(score + 1, counts.length - 1); i > 0; i -= i & -i)
+            count += counts[i];
+
+        return count;
+    }
+}
@@ -0,0 +1,308 @@
+package janken.server;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+
+/**
+ * This class publishes changes to the lobby to clients that wait
+ * for them, so that clients need not list the instances again to
+ * stay up to date. Every change to an instance's number of free
+ * slots, and every instance that is emptied or ended, raises the
+ * lobby's version by one.
+ *
+ * <p> A client asks for the changes since the last version it has
+ * seen. If there are none, its request is parked as an asynchronous
+ * request, which holds no servlet thread, until the next change or
+ * until it times out. The changes are given as the latest number of
+ * free slots of every instance that changed, where an instance that
+ * has no players or has ended is given {@value #REMOVED} free slots.
+ *
+ * <p> Only the latest change of each instance is kept, along with a
+ * bounded number of removals. A client whose version is older than
+ * the oldest removal that has been forgotten, or newer than the
+ * lobby's, is told to list the instances again.
+ *
+ * @author Rikard Nordström
+ * @see InstanceRegistry
+ */
+public class LobbyFeed implements InstanceListener
+{
+    /** Free slots reported for an instance that has left the lobby. */
+    public static final int REMOVED = -1;
+    /** Feed key holding the version of the lobby. */
+    public static final String FEED_VERSION = "version";
+    /** Feed key holding the free slots of every changed instance. */
+    public static final String FEED_CHANGES = "changes";
+    /** Feed key set when the client must list the instances again. */
+    public static final String FEED_RESET = "reset";
+    private static final int MAX_REMOVALS = 1024;
+    private final HashMap<String, Change> latest = new HashMap<>();
+    private final TreeMap<Long, String> changes = new TreeMap<>();
+    private final TreeMap<Long, String> removals = new TreeMap<>();
+    private final Set<Waiter> waiters = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean deliveryPending = new AtomicBoolean();
+    private final Executor executor;
+    private final long timeout;
+    private long version;
+    private long oldestVersion;
+
+    /**
+     * Creates a lobby feed.
+     *
+     * @param executor the executor that answers parked requests.
+     * @param timeout the time in milliseconds that a request
+     *                may be parked.
+     * @see Executor
+     */
+    public LobbyFeed(Executor executor, long timeout)
+    {
+        this.executor = executor;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Retrieves the version of the lobby.
+     *
+     * @return the version.
+     */
+    public synchronized long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Retrieves the number of parked requests.
+     *
+     * @return the number of requests.
+     */
+    public int getNumWaiting()
+    {
+        return waiters.size();
+    }
+
+    /**
+     * Answers a request with the changes since a version, at once if
+     * there are any and otherwise as soon as there are. The request is
+     * parked as an asynchronous request in the meantime.
+     *
+     * @param context the request's asynchronous context,
+     *                which the feed completes.
+     * @param since the last version that the client has seen.
+     * @see AsyncContext
+     */
+    public void await(AsyncContext context, long since)
+    {
+        Waiter waiter = new Waiter(context, since);
+
+        context.setTimeout(timeout);
+        context.addListener(waiter);
+        waiters.add(waiter);
+
+        // A change published before the request was parked is delivered here.
+        HashMap<String, Object> feed = getChangesSince(since);
+
+        if(feed != null)
+            waiter.answer(feed);
+    }
+
+    /**
+     * Retrieves the changes since a version.
+     *
+     * @param since the last version that the client has seen.
+     * @return the changes, or <tt>null</tt> if there are none.
+     */
+    public synchronized HashMap<String, Object> getChangesSince(long since)
+    {
+        HashMap<String, Object> feed = new HashMap<>();
+        feed.put(FEED_VERSION, version);
+
+        if(since < oldestVersion || since > version)
+        {
+            feed.put(FEED_RESET, true);
+
+            return feed;
+        }
+
+        Map<Long, String> newer = changes.tailMap(since, false);
+
+        if(newer.isEmpty())
+            return null;
+
+        HashMap<String, Integer> openSlots = new HashMap<>();
+
+        for (String name : newer.values())
+            openSlots.put(name, latest.get(name).openSlots);
+
+        feed.put(FEED_CHANGES, openSlots);
+
+        return feed;
+    }
+
+    @Override
+    public void occupancyChanged(GameInstanceHandler instance, int numPlayers)
+    {
+        publish(instance.getName(), numPlayers > 0
+                ? instance.getCapacity() - numPlayers : REMOVED);
+    }
+
+    @Override
+    public void instanceEnded(GameInstanceHandler instance)
+    {
+        publish(instance.getName(), REMOVED);
+    }
+
+    private void publish(String name, int openSlots)
+    {
+        synchronized(this)
+        {
+            Change previous = latest.get(name);
+
+            if(previous == null ? openSlots == REMOVED : previous.openSlots == openSlots)
+                return;
+
+            version++;
+
+            if(previous != null)
+            {
+                changes.remove(previous.version);
+                removals.remove(previous.version);
+            }
+
+            latest.put(name, new Change(version, openSlots));
+            changes.put(version, name);
+
+            if(openSlots == REMOVED)
+                removals.put(version, name);
+
+            if(removals.size() > MAX_REMOVALS)
+            {
+                Map.Entry<Long, String> oldest = removals.pollFirstEntry();
+
+                changes.remove(oldest.getKey());
+                latest.remove(oldest.getValue());
+                oldestVersion = oldest.getKey();
+            }
+        }
+
+        if(!waiters.isEmpty() && deliveryPending.compareAndSet(false, true))
+        {
+            try
+            {
+                executor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        deliver();
+                    }
+                });
+            }
+            catch(RejectedExecutionException ree)
+            {
+                deliveryPending.set(false);
+                System.err.println(ree.toString());
+            }
+        }
+    }
+
+    private void deliver()
+    {
+        deliveryPending.set(false);
+
+        for (Waiter waiter : new ArrayList<>(waiters))
+        {
+            HashMap<String, Object> feed = getChangesSince(waiter.since);
+
+            if(feed != null)
+                waiter.answer(feed);
+        }
+    }
+
+    private static class Change
+    {
+        private final long version;
+        private final int openSlots;
+
+        private Change(long version, int openSlots)
+        {
+            this.version = version;
+            this.openSlots = openSlots;
+        }
+    }
+
+    private class Waiter implements AsyncListener
+    {
+        private final AsyncContext context;
+        private final long since;
+        private final AtomicBoolean answered = new AtomicBoolean();
+
+        private Waiter(AsyncContext context, long since)
+        {
+            this.context = context;
+            this.since = since;
+        }
+
+        private void answer(HashMap<String, Object> feed)
+        {
+            if(!answered.compareAndSet(false, true))
+                return;
+
+            waiters.remove(this);
+
+            try (OutputStream out = context.getResponse().getOutputStream())
+            {
+                ObjectOutputStream outStream = new ObjectOutputStream(out);
+
+                outStream.writeObject(feed);
+                outStream.flush();
+            }
+            catch(IOException | IllegalStateException e)
+            {
+                System.err.println("Could not open output stream.");
+            }
+
+            context.complete();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event)
+        {
+            HashMap<String, Object> feed = new HashMap<>();
+            feed.put(FEED_VERSION, since);
+            feed.put(FEED_CHANGES, new HashMap<String, Integer>());
+
+            answer(feed);
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event)
+        {
+            waiters.remove(this);
+        }
+
+        @Override
+        public void onError(AsyncEvent event)
+        {
+            answered.set(true);
+            waiters.remove(this);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event)
+        {
+        }
+    }
+}
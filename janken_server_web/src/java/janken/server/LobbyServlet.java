@@ -1,24 +1,39 @@
 package janken.server;
 
 import janken.integration.JankenDAO;
+import janken.integration.PasswordHasher;
+import janken.integration.PlayerCache;
+import janken.integration.ScoreAggregator;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Set;
-import java.util.concurrent.Future;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Resource;
 import javax.ejb.EJB;
+import javax.ejb.EJBException;
 import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
 import javax.servlet.http.HttpServletResponse;
 
 /**
@@ -32,12 +47,48 @@ import javax.servlet.http.HttpServletResponse;
  * <p> The class' HTTP interface allows a client to create
  * a game instance on the server, join any game instance,
  * retrieve all available instances, retrieve scores for
- * all players that are currently in a game and create
- * or log in to a user account.
+ * all players that are currently in a game, retrieve the
+ * top players and any player's rank, retrieve server
+ * metrics, create or log in to a user account and
+ * log out.
+ * 
+ * <p> Several lobby actions may also be sent as a batch in a
+ * single POST request, which answers with their results in
+ * order, so that a client can move from the menu into a game
+ * in one round trip.
+ * 
+ * <p> All game instances share a single game transport,
+ * which listens on one well-known port. Joining an instance
+ * therefore yields the transport's port, and the client
+ * names the instance when connecting.
+ * 
+ * <p> A quick join is answered asynchronously once the player has
+ * been matched, so that no servlet thread waits for matchmaking.
+ * 
+ * <p> Clients that have listed the instances may wait for changes
+ * to the lobby with a long poll. A poll that finds no changes is
+ * parked without holding a servlet thread, and is answered with
+ * only the instances that changed once any do.
+ * 
+ * <p> Passwords are stored as slow hashes, whose cost is tuned to
+ * a target time at startup. Logins are verified on a small pool
+ * of their own with a bounded queue, so that a burst of logins
+ * never holds servlet threads; logins that do not fit in the
+ * queue are turned away at once.
+ * 
+ * <p> A successful login is answered with a session token in
+ * the {@value #SESSION_HEADER} header. The token is presented
+ * when asking for a quick game and when connecting to a game
+ * instance, where it is verified without consulting the
+ * database, and revoked at logout.
+ * 
+ * <p> Ranks are served from a leaderboard that is loaded from
+ * the database at startup and updated with every score change,
+ * so that ranking queries never touch the database.
  * 
  * @author Rikard Nordström
  */
-@WebServlet(name = "LobbyServlet", urlPatterns = {"/LobbyServlet"})
+@WebServlet(name = "LobbyServlet", urlPatterns = {"/LobbyServlet"}, asyncSupported = true)
 public class LobbyServlet extends HttpServlet
 {
     private static final String ACTION = "action";
@@ -46,17 +97,97 @@ public class LobbyServlet extends HttpServlet
     private static final String PASSWORD = "password";
     private static final String CREATE_INSTANCE = "create";
     private static final String ACCOUNT = "account";
+    private static final String LOGOUT = "logout";
+    private static final String TOKEN = "token";
+    private static final String SESSION_HEADER = "Session-Token";
+    private static final String RETRY_AFTER = "Retry-After";
+    private static final String BATCH = "batch";
+    private static final String OPERATION = "op";
     private static final String JOIN_INSTANCE = "join";
     private static final String GET_INSTANCES = "instances";
+    private static final String BROWSE_INSTANCES = "browse";
+    private static final String QUICK_JOIN = "quickjoin";
+    private static final String GET_UPDATES = "updates";
+    private static final String VERSION = "version";
+    private static final String PORT = "port";
+    private static final String CURSOR = "cursor";
+    private static final String LIMIT = "limit";
+    private static final String MIN_FREE = "minFree";
+    private static final String MAX_FREE = "maxFree";
+    private static final String PREFIX = "prefix";
+    private static final String STATE = "state";
+    private static final String STATE_IN_PROGRESS = "playing";
+    private static final String STATE_WAITING = "waiting";
     private static final String GET_STATS = "stats";
+    private static final String GET_TOP = "top";
+    private static final String GET_RANK = "rank";
+    private static final String RANK = "rank";
+    private static final String SCORE = "score";
+    private static final String GET_METRICS = "metrics";
+    private static final String GAME_PORT = "gamePort";
+    private static final String SELECTOR_COUNT = "selectorCount";
+    private static final String CONNECTION_BUDGET = "connectionBudget";
+    private static final String INSTANCE_EXECUTOR = "instanceExecutor";
+    private static final String READY_DEADLINE = "readyDeadline";
+    private static final String READY_EXPIRY = "readyExpiry";
+    private static final String CHOICE_DEADLINE = "choiceDeadline";
+    private static final String CHOICE_EXPIRY = "choiceExpiry";
+    private static final String IDLE_TIMEOUT = "idleTimeout";
+    private static final String CAPACITY = "capacity";
+    private static final String CHOICES = "choices";
+    private static final String RULE_SET = "ruleSet";
+    private static final String TIE_POLICY = "tiePolicy";
+    private static final String SESSION_LIFETIME = "sessionLifetime";
+    private static final String HASH_TARGET = "hashTarget";
+    private static final String LOGIN_THREADS = "loginThreads";
+    private static final String LOGIN_QUEUE = "loginQueue";
+    private static final int DEFAULT_GAME_PORT = 9090;
+    private static final int DEFAULT_SELECTOR_COUNT = 2;
+    private static final int DEFAULT_CONNECTION_BUDGET = 128 * 1024;
+    private static final int DEFAULT_READY_DEADLINE = 60;
+    private static final int DEFAULT_CHOICE_DEADLINE = 30;
+    private static final int DEFAULT_IDLE_TIMEOUT = 10;
+    private static final int DEFAULT_CAPACITY = 4;
+    private static final int DEFAULT_SESSION_LIFETIME = 24;
+    private static final int DEFAULT_HASH_TARGET = 100;
+    private static final int DEFAULT_LOGIN_THREADS = 2;
+    private static final int DEFAULT_LOGIN_QUEUE = 64;
+    private static final long ACCOUNT_TIMEOUT = 30000;
+    private static final int RETRY_AFTER_SECONDS = 1;
+    private static final int DEADLINE_TICK_MILLIS = 100;
+    private static final int DEADLINE_BUCKETS = 512;
+    private static final int ROSTER_SHARDS = 8;
+    private static final int SCORE_FLUSH_SIZE = 256;
+    private static final int SCORE_MAX_PENDING = 65536;
+    private static final long SCORE_FLUSH_MILLIS = 1000;
+    private static final long QUICK_JOIN_TIMEOUT = 5000;
+    private static final long LONG_POLL_TIMEOUT = 25000;
+    private static final long RESERVATION_HOLD = 15000;
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 100;
+    private static final int DEFAULT_TOP_SIZE = 10;
+    private static final int MAX_TOP_SIZE = 100;
+    private static final int MAX_BATCH_SIZE = 16;
     @Resource
     private ManagedExecutorService instancePool;
     @Resource
-    private ManagedScheduledExecutorService monitorPool;
-    @Resource
     private ManagedScheduledExecutorService playerStateScheduler;
-    private HashMap<String, GameInstanceHandler> instances;
-    private ArrayList<Future<String>> runningInstances;
+    @Resource
+    private ManagedThreadFactory threadFactory;
+    private InstanceRegistry instances;
+    private LobbyFeed lobbyFeed;
+    private ExecutorService instanceExecutor;
+    private GameTransport transport;
+    private TimingWheel deadlineTimer;
+    private RosterBroadcaster rosterBroadcaster;
+    private GameSettings settings;
+    private Matchmaker matchmaker;
+    private ScoreAggregator scoreAggregator;
+    private Leaderboard leaderboard;
+    private SessionTokens sessionTokens;
+    private PasswordHasher passwordHasher;
+    private ThreadPoolExecutor credentialPool;
+    private final AtomicLong rejectedLogins = new AtomicLong();
     @EJB
     private JankenDAO jankenDAO;
 
@@ -66,38 +197,416 @@ public class LobbyServlet extends HttpServlet
         super.init();
         
         System.out.println("Initializing LobbyServlet.");
-        instances = new HashMap<>();
-        runningInstances = new ArrayList<>();
-        monitorPool.scheduleAtFixedRate(new InstanceMonitor(), 1, 1, TimeUnit.SECONDS);
+        instances = new InstanceRegistry();
+        lobbyFeed = new LobbyFeed(instancePool, LONG_POLL_TIMEOUT);
+        instances.setListener(lobbyFeed);
+        instanceExecutor = InstanceExecutors.create(getInitParameter(INSTANCE_EXECUTOR), 
+                instancePool);
+        settings = new GameSettings();
+        settings.setCapacity(getIntParameter(CAPACITY, DEFAULT_CAPACITY));
+        settings.setReadyDeadline(TimeUnit.SECONDS.toMillis(
+                getIntParameter(READY_DEADLINE, DEFAULT_READY_DEADLINE)));
+        settings.setReadyExpiry(getInitParameter(READY_EXPIRY));
+        settings.setChoiceDeadline(TimeUnit.SECONDS.toMillis(
+                getIntParameter(CHOICE_DEADLINE, DEFAULT_CHOICE_DEADLINE)));
+        settings.setChoiceExpiry(getInitParameter(CHOICE_EXPIRY));
+        settings.setRuleSet(getInitParameter(RULE_SET));
+        settings.setTiePolicy(getInitParameter(TIE_POLICY));
+        deadlineTimer = new TimingWheel(DEADLINE_TICK_MILLIS, TimeUnit.MILLISECONDS, 
+                DEADLINE_BUCKETS);
+        deadlineTimer.start(instancePool);
+        rosterBroadcaster = new RosterBroadcaster(1, TimeUnit.SECONDS, ROSTER_SHARDS);
+        rosterBroadcaster.start(playerStateScheduler);
+        leaderboard = new Leaderboard();
+        
+        try 
+        {
+            leaderboard.load(jankenDAO.getAllScores());
+        } 
+        catch(EJBException ejbe) 
+        {
+            System.err.println("Could not load the leaderboard: " + ejbe.toString());
+        }
+        
+        scoreAggregator = new ScoreAggregator(jankenDAO, new ScoreAggregator.Listener()
+        {
+            @Override
+            public void scoreAdded(String playerName, int amount)
+            {
+                leaderboard.increment(playerName, amount);
+            }
+        }, SCORE_FLUSH_SIZE, SCORE_MAX_PENDING, SCORE_FLUSH_MILLIS);
+        scoreAggregator.start(playerStateScheduler);
+        matchmaker = new Matchmaker(instances, new Matchmaker.InstanceFactory()
+        {
+            @Override
+            public boolean createInstance(String name)
+            {
+                return LobbyServlet.this.createInstance(name);
+            }
+        }, playerStateScheduler, RESERVATION_HOLD);
+        passwordHasher = PasswordHasher.calibrate(getIntParameter(HASH_TARGET, 
+                DEFAULT_HASH_TARGET));
+        
+        int loginThreads = Math.max(1, getIntParameter(LOGIN_THREADS, DEFAULT_LOGIN_THREADS));
+        credentialPool = new ThreadPoolExecutor(loginThreads, loginThreads, 0, 
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+                        Math.max(1, getIntParameter(LOGIN_QUEUE, DEFAULT_LOGIN_QUEUE))),
+                threadFactory);
+        sessionTokens = new SessionTokens(TimeUnit.HOURS.toMillis(
+                getIntParameter(SESSION_LIFETIME, DEFAULT_SESSION_LIFETIME)));
+        transport = new GameTransport(getIntParameter(GAME_PORT, DEFAULT_GAME_PORT),
+                getIntParameter(SELECTOR_COUNT, DEFAULT_SELECTOR_COUNT),
+                getIntParameter(CONNECTION_BUDGET, DEFAULT_CONNECTION_BUDGET),
+                TimeUnit.SECONDS.toMillis(getIntParameter(IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT)),
+                instances, sessionTokens);
+        
+        try 
+        {
+            transport.start(instancePool);
+        } 
+        catch(IOException ioe) 
+        {
+            throw new ServletException("Could not start the game transport.", ioe);
+        }
+    }
+
+    @Override
+    public void destroy() 
+    {
+        System.out.println("Destroying LobbyServlet.");
+        transport.stop();
+        deadlineTimer.stop();
+        rosterBroadcaster.stop();
+        
+        if(instanceExecutor != instancePool)
+            instanceExecutor.shutdownNow();
+        
+        credentialPool.shutdownNow();
+        scoreAggregator.stop();
+        
+        super.destroy();
+    }
+    
+    private int getIntParameter(String name, int defaultValue)
+    {
+        return parseInt(name, getInitParameter(name), defaultValue);
+    }
+    
+    private static int parseInt(String name, String value, int defaultValue)
+    {
+        if(value == null)
+            return defaultValue;
+        
+        try 
+        {
+            return Integer.parseInt(value.trim());
+        } 
+        catch(NumberFormatException nfe) 
+        {
+            System.err.println("Invalid value for " + name + ": " + value + ".");
+            
+            return defaultValue;
+        }
+    }
+    
+    private void submitAccount(HttpServletRequest request)
+    {
+        String playerName = request.getParameter(USERNAME);
+        AsyncContext context = request.startAsync();
+        AccountRequest pending = new AccountRequest(context, playerName, 
+                request.getParameter(PASSWORD));
+        
+        context.setTimeout(ACCOUNT_TIMEOUT);
+        context.addListener(pending);
+        
+        try 
+        {
+            credentialPool.execute(pending);
+        } 
+        catch(RejectedExecutionException ree) 
+        {
+            System.out.println("Too many logins in progress; turning away " 
+                    + playerName + ".");
+            rejectedLogins.incrementAndGet();
+            pending.answer(503, null, "Too many logins; try again later.");
+        }
+    }
+    
+    private void account(AccountRequest pending, String playerName, String password)
+    {
+        String passwordHash = playerName == null ? null 
+                : jankenDAO.getPasswordHash(playerName);
+        
+        if(playerName == null || password == null)
+            pending.answer(400, null, "A username and a password are required.");
+        else if(passwordHash == null)
+        {
+            System.out.println("Registering account " + playerName + ".");
+            jankenDAO.addPlayer(playerName, passwordHasher.hash(password));
+            leaderboard.addPlayer(playerName, 0);
+            
+            pending.answer(201, sessionTokens.issue(playerName), "Registration successful.");
+        }
+        else if(passwordHasher.verify(password, passwordHash))
+        {
+            System.out.println("Access granted for " + playerName + ".");
+            
+            if(passwordHasher.needsRehash(passwordHash))
+                jankenDAO.updatePasswordHash(playerName, passwordHasher.hash(password));
+            
+            pending.answer(200, sessionTokens.issue(playerName), "Login successful.");
+        }
+        else
+        {
+            System.out.println("Access denied for " + playerName + ".");
+            pending.answer(401, null, "Access denied.");
+        }
+    }
+    
+    private boolean logout(String token)
+    {
+        String playerName = sessionTokens.verify(token);
+        
+        if(playerName == null)
+            return false;
+        
+        System.out.println("Logging out " + playerName + "...");
+        sessionTokens.revoke(playerName);
+        
+        return true;
+    }
+    
+    private ArrayList<Object> runBatch(HttpServletRequest request) 
+            throws UnsupportedEncodingException
+    {
+        ArrayList<Object> results = new ArrayList<>();
+        
+        for (String query : request.getParameterValues(OPERATION))
+            results.add(runOperation(new OperationRequest(request, query)));
+        
+        return results;
+    }
+    
+    private Object runOperation(HttpServletRequest operation)
+    {
+        String action = operation.getParameter(ACTION);
+        
+        if(action == null)
+            return null;
+        
+        // Logins, quick joins and long polls are not batched, since they must not hold this thread.
+        switch(action)
+        {
+            case CREATE_INSTANCE :
+                return createInstance(operation.getParameter(INSTANCE_NAME)) ? 201 : 400;
+            case LOGOUT :
+                return logout(operation.getParameter(TOKEN)) ? 200 : 401;
+            case JOIN_INSTANCE :
+                return getInstancePorts(operation.getParameter(INSTANCE_NAME));
+            case BROWSE_INSTANCES :
+                return browseInstances(operation);
+            case GET_STATS :
+                return getCurrentScores();
+            case GET_TOP :
+                return getTopPlayers(operation);
+            case GET_RANK :
+                return getRank(operation.getParameter(USERNAME));
+            default :
+                return null;
+        }
+    }
+    
+    private static long parseLong(String name, String value, long defaultValue)
+    {
+        if(value == null)
+            return defaultValue;
+        
+        try 
+        {
+            return Long.parseLong(value.trim());
+        } 
+        catch(NumberFormatException nfe) 
+        {
+            System.err.println("Invalid value for " + name + ": " + value + ".");
+            
+            return defaultValue;
+        }
+    }
+    
+    private HashMap<String, Object> browseInstances(HttpServletRequest request)
+    {
+        String state = request.getParameter(STATE);
+        Boolean inProgress = null;
+        int limit = parseInt(LIMIT, request.getParameter(LIMIT), DEFAULT_PAGE_SIZE);
+        // Taken before the page, so that a change made meanwhile is sent again rather than lost.
+        long version = lobbyFeed.getVersion();
+        
+        if(STATE_IN_PROGRESS.equals(state))
+            inProgress = true;
+        else if(STATE_WAITING.equals(state))
+            inProgress = false;
+        
+        HashMap<String, Object> page = 
+                instances.getPage(parseInt(MIN_FREE, request.getParameter(MIN_FREE), 0),
+                parseInt(MAX_FREE, request.getParameter(MAX_FREE), Integer.MAX_VALUE),
+                request.getParameter(PREFIX), inProgress, request.getParameter(CURSOR),
+                Math.min(limit, MAX_PAGE_SIZE));
+        
+        page.put(VERSION, version);
+        
+        return page;
     }
     
     private boolean createInstance(String name)
     {
-        if(instances.containsKey(name))
+        if(name == null)
+            return false;
+        
+        GameInstanceHandler handler = 
+                new GameInstanceHandler(name, scoreAggregator, rosterBroadcaster,
+                        deadlineTimer, settings);
+        
+        if(!instances.register(handler))
         {
             System.out.println("Failed to create game instance.");
             
             return false;
         }
         
-        GameInstanceHandler handler = 
-                new GameInstanceHandler(name, jankenDAO, playerStateScheduler);
         System.out.println("Game instance created!");
         
-        runningInstances.add(instancePool.submit(handler));
-        System.out.println("The number of running instances is now " 
-                + runningInstances.size() + ".");
+        try 
+        {
+            instanceExecutor.submit(handler);
+        } 
+        catch(RejectedExecutionException ree) 
+        {
+            System.err.println("Could not start game instance " + name + ".");
+            instances.unregister(name);
+            
+            return false;
+        }
         
-        instances.put(name, handler);
+        System.out.println("The number of running instances is now " 
+                + instances.size() + ".");
         
         return true;
     }
     
     private ArrayList<Integer> getInstancePorts(String name)
     {
+        ArrayList<Integer> ports = new ArrayList<>();
+        
         GameInstanceHandler instance = instances.get(name);
         
-        return instance.getPorts();
+        if(instance != null && instances.isJoinable(name))
+        {
+            ports.add(transport.getPort());
+            ports.add(instance.getCapacity());
+            ports.add(instance.getRuleSet().getNumChoices());
+        }
+        
+        return ports;
+    }
+
+    private void quickJoin(AsyncContext context, String token)
+    {
+        QuickJoinRequest pending = new QuickJoinRequest(context);
+        String playerName = sessionTokens.verify(token);
+        
+        context.setTimeout(QUICK_JOIN_TIMEOUT);
+        context.addListener(pending);
+        
+        if(playerName == null)
+            pending.seated(null);
+        else
+            matchmaker.quickJoin(playerName, pending);
+    }
+
+    private HashMap<String, Integer> getCurrentScores()
+    {
+        ArrayList<String> playerNames = new ArrayList<>();
+
+        for (GameInstanceHandler instance : instances.getInstances())
+        {
+            playerNames.addAll(instance.getCurrentPlayers());
+        }
+
+        return jankenDAO.getPlayerScores(playerNames);
+    }
+
+    private LinkedHashMap<String, Integer> getTopPlayers(HttpServletRequest request)
+    {
+        int limit = parseInt(LIMIT, request.getParameter(LIMIT), DEFAULT_TOP_SIZE);
+        
+        return leaderboard.getTop(Math.min(limit, MAX_TOP_SIZE));
+    }
+    
+    private HashMap<String, Integer> getRank(String playerName)
+    {
+        HashMap<String, Integer> rank = new HashMap<>();
+        Integer score = leaderboard.getScore(playerName);
+        
+        if(score != null)
+        {
+            rank.put(RANK, leaderboard.getRank(playerName));
+            rank.put(SCORE, score);
+        }
+        
+        return rank;
+    }
+
+    private HashMap<String, Long> getMetrics()
+    {
+        HashMap<String, Long> metrics = new HashMap<>();
+        long retainedBytes = 0;
+        long maxRetainedBytes = 0;
+        
+        for (GameInstanceHandler instance : instances.getInstances())
+        {
+            long retained = instance.getRetainedBytes();
+            retainedBytes += retained;
+            maxRetainedBytes = Math.max(maxRetainedBytes, retained);
+        }
+        
+        metrics.put("instances", (long) instances.size());
+        metrics.put("connections.retainedBytes", retainedBytes);
+        metrics.put("connections.maxRetainedBytesPerInstance", maxRetainedBytes);
+        metrics.put("connections.idleClosed", transport.getIdleClosures());
+        metrics.put("connections.unauthenticated", transport.getUnauthenticatedClosures());
+        metrics.put("sessions.revocations", (long) sessionTokens.getRevocationCount());
+        metrics.put("logins.active", (long) credentialPool.getActiveCount());
+        metrics.put("logins.queued", (long) credentialPool.getQueue().size());
+        metrics.put("logins.rejected", rejectedLogins.get());
+        metrics.put("passwords.iterations", (long) passwordHasher.getIterations());
+        metrics.put("roster.registeredInstances", 
+                (long) rosterBroadcaster.getNumInstances());
+        metrics.put("rounds.pendingDeadlines", (long) deadlineTimer.getPendingCount());
+        metrics.put("lobby.version", lobbyFeed.getVersion());
+        metrics.put("lobby.waitingPolls", (long) lobbyFeed.getNumWaiting());
+        metrics.put("matchmaking.queuedPlayers", (long) matchmaker.getQueueLength());
+        metrics.put("matchmaking.batches", matchmaker.getBatchCount());
+        metrics.put("matchmaking.maxBatchSize", matchmaker.getMaxBatchSize());
+        metrics.put("matchmaking.abandonedInstances", matchmaker.getAbandonedCount());
+        metrics.put("scores.pendingPlayers", (long) scoreAggregator.getPendingCount());
+        metrics.put("scores.flushes", scoreAggregator.getFlushCount());
+        metrics.put("scores.rejected", scoreAggregator.getRejectedCount());
+        metrics.put("scores.lastFlushMillis", scoreAggregator.getLastFlushMillis());
+        metrics.put("scores.maxFlushMillis", scoreAggregator.getMaxFlushMillis());
+        metrics.put("leaderboard.players", (long) leaderboard.size());
+        
+        PlayerCache playerCache = jankenDAO.getPlayerCache();
+        long hits = playerCache.getHitCount();
+        long lookups = hits + playerCache.getMissCount();
+        
+        metrics.put("playerCache.size", (long) playerCache.size());
+        metrics.put("playerCache.hits", hits);
+        metrics.put("playerCache.misses", lookups - hits);
+        metrics.put("playerCache.evictions", playerCache.getEvictionCount());
+        metrics.put("playerCache.hitRatePercent", lookups == 0 ? 0 : 100 * hits / lookups);
+        
+        return metrics;
     }
 
     @Override
@@ -131,18 +640,28 @@ public class LobbyServlet extends HttpServlet
                     System.out.println("Fetching game instances...");
                     try (OutputStream out = response.getOutputStream()) 
                     {
-                        Set<String> instanceNamesSet = instances.keySet();
-                        ArrayList<String> instanceNamesAL = new ArrayList<>();
-
-                        for (String name : instanceNamesSet)
-                        {
-                            if(instances.get(name).getNumConnections() > 0)
-                                instanceNamesAL.add(name);
-                        }
+                        byte[] listing = instances.getOpenInstanceListing();
 
+                        response.setContentLength(listing.length);
+                        out.write(listing);
+                        out.flush();
+                    }
+                    catch(Exception e)
+                    {
+                        System.err.println("Could not open output stream.");
+                    }
+                    break;
+                case QUICK_JOIN :
+                    System.out.println("Finding a game instance to join...");
+                    quickJoin(request.startAsync(), request.getParameter(TOKEN));
+                    break;
+                case BROWSE_INSTANCES :
+                    System.out.println("Browsing game instances...");
+                    try (OutputStream out = response.getOutputStream()) 
+                    {
                         ObjectOutputStream outStream = new ObjectOutputStream(out);
-
-                        outStream.writeObject(instanceNamesAL);
+                        
+                        outStream.writeObject(browseInstances(request));
                         outStream.flush();
                     }
                     catch(Exception e)
@@ -150,20 +669,60 @@ public class LobbyServlet extends HttpServlet
                         System.err.println("Could not open output stream.");
                     }
                     break;
+                case GET_UPDATES :
+                    System.out.println("Waiting for lobby changes...");
+                    lobbyFeed.await(request.startAsync(), 
+                            parseLong(VERSION, request.getParameter(VERSION), -1));
+                    break;
                 case GET_STATS :
                     System.out.println("Fetching stats...");
                     try (OutputStream out = response.getOutputStream()) 
                     {
                         ObjectOutputStream outStream = new ObjectOutputStream(out);
-                        Set<String> instanceNames = instances.keySet();
-                        ArrayList<String> playerNames = new ArrayList<>();
-
-                        for (String iname : instanceNames)
-                        {
-                            playerNames.addAll(instances.get(iname).getCurrentPlayers());
-                        }
 
-                        outStream.writeObject(jankenDAO.getPlayerScores(playerNames));
+                        outStream.writeObject(getCurrentScores());
+                        outStream.flush();
+                    }
+                    catch(Exception e)
+                    {
+                        System.err.println("Could not open output stream.");
+                    }
+                    break;
+                case GET_TOP :
+                    System.out.println("Fetching top players...");
+                    try (OutputStream out = response.getOutputStream()) 
+                    {
+                        ObjectOutputStream outStream = new ObjectOutputStream(out);
+                        
+                        outStream.writeObject(getTopPlayers(request));
+                        outStream.flush();
+                    }
+                    catch(Exception e)
+                    {
+                        System.err.println("Could not open output stream.");
+                    }
+                    break;
+                case GET_RANK :
+                    System.out.println("Fetching player rank...");
+                    try (OutputStream out = response.getOutputStream()) 
+                    {
+                        ObjectOutputStream outStream = new ObjectOutputStream(out);
+                        
+                        outStream.writeObject(getRank(request.getParameter(USERNAME)));
+                        outStream.flush();
+                    }
+                    catch(Exception e)
+                    {
+                        System.err.println("Could not open output stream.");
+                    }
+                    break;
+                case GET_METRICS :
+                    System.out.println("Fetching metrics...");
+                    try (OutputStream out = response.getOutputStream()) 
+                    {
+                        ObjectOutputStream outStream = new ObjectOutputStream(out);
+                        
+                        outStream.writeObject(getMetrics());
                         outStream.flush();
                     }
                     catch(Exception e)
@@ -209,38 +768,56 @@ public class LobbyServlet extends HttpServlet
                     }
                     break;
                 case ACCOUNT : 
+                    System.out.println("Setting up/validating account...");
+                    submitAccount(request);
+                    break;
+                case LOGOUT : 
                     try (PrintWriter out = response.getWriter())
                     {
-                        System.out.println("Setting up/validating account...");
-                        String playerName = request.getParameter(USERNAME);
-                        String password = request.getParameter(PASSWORD);
-                        
-                        if(!jankenDAO.playerExists(playerName))
+                        if(logout(request.getParameter(TOKEN)))
                         {
-                            System.out.println("Registering account " + playerName
-                                    + " using password " + password + ".");
-                            jankenDAO.addPlayer(playerName, password);
-                            
-                            response.setStatus(201);
-                            out.write("Registration successful.");
-                            out.flush();
-                        }
-                        else if(jankenDAO.validate(playerName, password))
-                        {
-                            System.out.println("Access granted for " + playerName
-                                    + " using password " + password + ".");
                             response.setStatus(200);
-                            out.write("Login successful.");
+                            out.write("Logout successful.");
                             out.flush();
                         }
                         else
                         {
-                            System.out.println("Access denied for " + playerName
-                                    + " using password " + password + ".");
                             response.setStatus(401);
-                            out.write("Access denied.");
+                            out.write("Invalid session.");
+                            out.flush();
+                        }
+                    }
+                    catch(Exception e)
+                    {
+                        System.err.println("Could not open output stream.");
+                    }
+                    break;
+                case BATCH : 
+                    System.out.println("Running a batch of lobby actions...");
+                    String[] operations = request.getParameterValues(OPERATION);
+                    
+                    if(operations == null || operations.length > MAX_BATCH_SIZE)
+                    {
+                        try (PrintWriter out = response.getWriter())
+                        {
+                            response.setStatus(400);
+                            out.write("A batch holds between 1 and " + MAX_BATCH_SIZE 
+                                    + " actions.");
                             out.flush();
                         }
+                        catch(Exception e)
+                        {
+                            System.err.println("Could not open output stream.");
+                        }
+                        break;
+                    }
+                    
+                    try (OutputStream out = response.getOutputStream()) 
+                    {
+                        ObjectOutputStream outStream = new ObjectOutputStream(out);
+                        
+                        outStream.writeObject(runBatch(request));
+                        outStream.flush();
                     }
                     catch(Exception e)
                     {
@@ -257,36 +834,196 @@ public class LobbyServlet extends HttpServlet
         return "A janken game lobby server.";
     }
     
-    private class InstanceMonitor implements Runnable
+    /**
+     * A registration or login waiting for the credential pool,
+     * which answers its request once the password has been
+     * checked, or with a retry if that has not happened in time.
+     */
+    private class AccountRequest implements Runnable, AsyncListener
     {
+        private final AsyncContext context;
+        private final String playerName;
+        private final String password;
+        private final AtomicBoolean answered = new AtomicBoolean();
+        
+        private AccountRequest(AsyncContext context, String playerName, String password)
+        {
+            this.context = context;
+            this.playerName = playerName;
+            this.password = password;
+        }
+        
         @Override
         public void run()
         {
             try 
             {
-                Iterator iterator = runningInstances.iterator();
-                
-                while (iterator.hasNext())
-                {
-                    Future<String> future = (Future<String>) iterator.next();
-                    
-                    if(future.isDone())
-                    {
-                        String instanceName = future.get();
-
-                        System.out.println("Removing " + instanceName + ".");
-                        instances.remove(instanceName);
-                        iterator.remove(); // Remove running instance.
-                        System.out.println("Number of instances is now: " 
-                                + instances.size());
-                    }
-
-                }
+                account(this, playerName, password);
             } 
-            catch (Exception e) 
+            catch(EJBException ejbe) 
+            {
+                System.err.println("Could not process the account of " + playerName 
+                        + ": " + ejbe.toString());
+            }
+            finally 
+            {
+                answer(500, null, "The account could not be processed.");
+            }
+        }
+        
+        private void answer(int status, String sessionToken, String message)
+        {
+            if(!answered.compareAndSet(false, true))
+                return;
+            
+            HttpServletResponse response = (HttpServletResponse) context.getResponse();
+            
+            try (PrintWriter out = response.getWriter())
+            {
+                if(sessionToken != null)
+                    response.setHeader(SESSION_HEADER, sessionToken);
+                
+                if(status == 503)
+                    response.setHeader(RETRY_AFTER, String.valueOf(RETRY_AFTER_SECONDS));
+                
+                response.setStatus(status);
+                out.write(message);
+                out.flush();
+            }
+            catch(IOException | IllegalStateException e)
+            {
+                System.err.println("Could not open output stream.");
+            }
+            
+            context.complete();
+        }
+        
+        @Override
+        public void onTimeout(AsyncEvent event)
+        {
+            answer(503, null, "The login timed out; try again later.");
+        }
+        
+        @Override
+        public void onComplete(AsyncEvent event)
+        {
+        }
+        
+        @Override
+        public void onError(AsyncEvent event)
+        {
+            answered.set(true);
+        }
+        
+        @Override
+        public void onStartAsync(AsyncEvent event)
+        {
+        }
+    }
+    
+    /**
+     * A quick join waiting to be matched, which answers its
+     * request with the details of the player's seat, or with
+     * no details if the player could not be seated in time.
+     */
+    private class QuickJoinRequest implements Matchmaker.SeatListener, AsyncListener
+    {
+        private final AsyncContext context;
+        private final AtomicBoolean answered = new AtomicBoolean();
+        
+        private QuickJoinRequest(AsyncContext context)
+        {
+            this.context = context;
+        }
+        
+        @Override
+        public void seated(String instanceName)
+        {
+            HashMap<String, Object> details = new HashMap<>();
+            GameInstanceHandler instance = instanceName == null ? null 
+                    : instances.get(instanceName);
+            
+            if(instance != null)
+            {
+                details.put(INSTANCE_NAME, instanceName);
+                details.put(PORT, transport.getPort());
+                details.put(CAPACITY, instance.getCapacity());
+                details.put(CHOICES, instance.getRuleSet().getNumChoices());
+            }
+            
+            answer(details);
+        }
+        
+        private void answer(HashMap<String, Object> details)
+        {
+            if(!answered.compareAndSet(false, true))
+                return;
+            
+            try (OutputStream out = context.getResponse().getOutputStream()) 
+            {
+                ObjectOutputStream outStream = new ObjectOutputStream(out);
+                
+                outStream.writeObject(details);
+                outStream.flush();
+            }
+            catch(IOException | IllegalStateException e)
+            {
+                System.err.println("Could not open output stream.");
+            }
+            
+            context.complete();
+        }
+        
+        @Override
+        public void onTimeout(AsyncEvent event)
+        {
+            answer(new HashMap<String, Object>());
+        }
+        
+        @Override
+        public void onComplete(AsyncEvent event)
+        {
+        }
+        
+        @Override
+        public void onError(AsyncEvent event)
+        {
+            answered.set(true);
+        }
+        
+        @Override
+        public void onStartAsync(AsyncEvent event)
+        {
+        }
+    }
+    
+    /**
+     * A single action of a batch, whose parameters are read from
+     * a URL-encoded query rather than from the batch request.
+     */
+    private static class OperationRequest extends HttpServletRequestWrapper
+    {
+        private final HashMap<String, String> params = new HashMap<>();
+        
+        private OperationRequest(HttpServletRequest request, String query) 
+                throws UnsupportedEncodingException
+        {
+            super(request);
+            
+            for (String pair : query.split("&"))
             {
-                e.printStackTrace(System.err);
-            }    
+                int separator = pair.indexOf('=');
+                
+                if(separator > 0)
+                    params.put(URLDecoder.decode(pair.substring(0, separator), "UTF-8"),
+                            URLDecoder.decode(pair.substring(separator + 1), "UTF-8"));
+            }
+        }
+        
+        @Override
+        public String getParameter(String name)
+        {
+            return params.get(name);
         }
     }
 }
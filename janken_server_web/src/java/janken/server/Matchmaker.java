@@ -0,0 +1,412 @@
+package janken.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class represents the matchmaking queue behind quick joins.
+ * Players asking for a game are queued, and whichever request
+ * thread holds the matching lock seats every queued player at
+ * once, so that requests arriving together are matched as a
+ * single batch rather than one lock acquisition each. No request
+ * ever waits for the lock: one that finds it taken leaves its
+ * player to the holder, which keeps matching until the queue is
+ * empty, and every player is told their seat through a listener
+ * once the lock has been released.
+ *
+ * <p> Players are seated in the fullest instance that still has
+ * a free slot, and a new instance is created only when none has.
+ * Since a seated player only takes the slot once it connects, the
+ * seat is reserved for it in the meantime. A reservation is
+ * dropped once the player shows up on the instance's roster, or
+ * when it has not done so within the reservation hold.
+ *
+ * <p> An instance created for queued players is ended once its
+ * reservations have lapsed if none of them ever connected, so
+ * that abandoned instances hold no thread or registry entry.
+ *
+ * @author Rikard Nordström
+ * @see InstanceRegistry
+ */
+public class Matchmaker
+{
+    private static final int SCAN_LIMIT = 32;
+    private static final String NAME_PREFIX = "Quick game ";
+    private final ConcurrentLinkedQueue<Ticket> queue = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock matchLock = new ReentrantLock();
+    private final HashMap<String, HashMap<String, Long>> reservations = new HashMap<>();
+    private final AtomicInteger nextInstance = new AtomicInteger();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong maxBatchSize = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+    private final InstanceRegistry instances;
+    private final InstanceFactory factory;
+    private final ScheduledExecutorService scheduler;
+    private final long reservationHold;
+
+    /**
+     * Creates a matchmaker.
+     *
+     * @param instances the instances that players may be seated in.
+     * @param factory the factory of new instances.
+     * @param scheduler the scheduler that checks whether new
+     *                  instances have been abandoned.
+     * @param reservationHold the time in milliseconds that a seat
+     *                        is held for a player before it connects.
+     * @see InstanceRegistry
+     * @see ScheduledExecutorService
+     */
+    public Matchmaker(InstanceRegistry instances, InstanceFactory factory, 
+            ScheduledExecutorService scheduler, long reservationHold)
+    {
+        this.instances = instances;
+        this.factory = factory;
+        this.scheduler = scheduler;
+        this.reservationHold = reservationHold;
+    }
+
+    /**
+     * Seats a player in a game instance without waiting. The
+     * listener is told the player's seat either by this call or
+     * by whichever call is matching queued players.
+     *
+     * @param playerName the name of the player.
+     * @param listener the receiver of the player's seat.
+     * @see SeatListener
+     */
+    public void quickJoin(String playerName, SeatListener listener)
+    {
+        queue.add(new Ticket(playerName, listener));
+        drain();
+    }
+
+    /**
+     * Retrieves the number of players queued for a seat.
+     *
+     * @return the length of the queue.
+     */
+    public int getQueueLength()
+    {
+        return queue.size();
+    }
+
+    /**
+     * Retrieves the number of batches of queued players
+     * matched since the matchmaker was created.
+     *
+     * @return the number of batches.
+     */
+    public long getBatchCount()
+    {
+        return batches.get();
+    }
+
+    /**
+     * Retrieves the number of players in the largest batch.
+     *
+     * @return the size of the largest batch.
+     */
+    public long getMaxBatchSize()
+    {
+        return maxBatchSize.get();
+    }
+
+    /**
+     * Retrieves the number of instances ended because
+     * nobody joined them in time.
+     *
+     * @return the number of abandoned instances.
+     */
+    public long getAbandonedCount()
+    {
+        return abandoned.get();
+    }
+
+    private void drain()
+    {
+        // Every holder drains after unlocking, so nothing queued meanwhile is left behind.
+        while(!queue.isEmpty() && matchLock.tryLock())
+        {
+            ArrayList<Ticket> batch;
+
+            try
+            {
+                batch = matchQueued();
+            }
+            finally
+            {
+                matchLock.unlock();
+            }
+
+            for (Ticket ticket : batch)
+                ticket.listener.seated(ticket.instanceName);
+        }
+    }
+
+    private ArrayList<Ticket> matchQueued()
+    {
+        ArrayList<Ticket> batch = new ArrayList<>();
+        Ticket ticket;
+
+        while((ticket = queue.poll()) != null)
+            batch.add(ticket);
+
+        if(batch.isEmpty())
+            return batch;
+
+        long now = System.currentTimeMillis();
+        purgeReservations(now);
+
+        for (Ticket queued : batch)
+        {
+            String instanceName = findSeat(queued.playerName);
+
+            if(instanceName == null)
+                instanceName = createInstance();
+
+            if(instanceName != null)
+                reserve(instanceName, queued.playerName, now);
+
+            queued.instanceName = instanceName;
+        }
+
+        batches.incrementAndGet();
+
+        if(batch.size() > maxBatchSize.get())
+            maxBatchSize.set(batch.size());
+
+        return batch;
+    }
+
+    private String findSeat(String playerName)
+    {
+        String best = null;
+        int bestFree = Integer.MAX_VALUE;
+
+        // A player asking again keeps the seat it was given.
+        for (Map.Entry<String, HashMap<String, Long>> entry : reservations.entrySet())
+        {
+            if(entry.getValue().containsKey(playerName))
+                return entry.getKey();
+        }
+
+        for (String name : reservations.keySet())
+        {
+            int free = getFreeSlots(name, playerName);
+
+            if(free > 0 && free < bestFree)
+            {
+                best = name;
+                bestFree = free;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        List<String> open = (List<String>) instances.getPage(1, Integer.MAX_VALUE, null,
+                null, null, SCAN_LIMIT).get(InstanceRegistry.PAGE_INSTANCES);
+
+        for (String name : open)
+        {
+            if(reservations.containsKey(name))
+                continue;
+
+            int free = getFreeSlots(name, playerName);
+
+            if(free > 0 && free < bestFree)
+            {
+                best = name;
+                bestFree = free;
+            }
+        }
+
+        return best;
+    }
+
+    private int getFreeSlots(String name, String playerName)
+    {
+        GameInstanceHandler instance = instances.get(name);
+        int numPlayers = instances.getNumPlayers(name);
+
+        if(instance == null || numPlayers < 0
+                || instance.getCurrentPlayers().contains(playerName))
+            return 0;
+
+        HashMap<String, Long> reserved = reservations.get(name);
+
+        if(reserved == null)
+            return instance.getCapacity() - numPlayers;
+
+        if(reserved.containsKey(playerName))
+            return 0;
+
+        return instance.getCapacity() - numPlayers - reserved.size();
+    }
+
+    private String createInstance()
+    {
+        for (int attempt = 0; attempt < SCAN_LIMIT; attempt++)
+        {
+            String name = NAME_PREFIX + nextInstance.incrementAndGet();
+
+            if(instances.get(name) == null && factory.createInstance(name))
+            {
+                scheduleAbandonCheck(name, reservationHold);
+
+                return name;
+            }
+        }
+
+        System.err.println("Could not create an instance for quick join.");
+
+        return null;
+    }
+
+    private void scheduleAbandonCheck(final String name, long delay)
+    {
+        scheduler.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                endIfAbandoned(name);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void endIfAbandoned(String name)
+    {
+        matchLock.lock();
+
+        try
+        {
+            long now = System.currentTimeMillis();
+            purgeReservations(now);
+
+            GameInstanceHandler instance = instances.get(name);
+            HashMap<String, Long> reserved = reservations.get(name);
+
+            if(instance == null)
+                return;
+
+            // Seats handed out since are given their full hold.
+            if(reserved != null)
+            {
+                long expiry = 0;
+
+                for (long reservationExpiry : reserved.values())
+                    expiry = Math.max(expiry, reservationExpiry);
+
+                scheduleAbandonCheck(name, Math.max(1, expiry - now));
+            }
+            else if(instance.endIfUnjoined())
+                abandoned.incrementAndGet();
+        }
+        finally
+        {
+            matchLock.unlock();
+        }
+
+        drain();
+    }
+
+    private void reserve(String instanceName, String playerName, long now)
+    {
+        HashMap<String, Long> reserved = reservations.get(instanceName);
+
+        if(reserved == null)
+        {
+            reserved = new HashMap<>();
+            reservations.put(instanceName, reserved);
+        }
+
+        reserved.put(playerName, now + reservationHold);
+    }
+
+    private void purgeReservations(long now)
+    {
+        Iterator<Map.Entry<String, HashMap<String, Long>>> iterator =
+                reservations.entrySet().iterator();
+
+        while(iterator.hasNext())
+        {
+            Map.Entry<String, HashMap<String, Long>> entry = iterator.next();
+            GameInstanceHandler instance = instances.get(entry.getKey());
+
+            if(instance == null)
+            {
+                iterator.remove();
+
+                continue;
+            }
+
+            List<String> players = instance.getCurrentPlayers();
+            Iterator<Map.Entry<String, Long>> reserved = entry.getValue().entrySet().iterator();
+
+            while(reserved.hasNext())
+            {
+                Map.Entry<String, Long> reservation = reserved.next();
+
+                if(reservation.getValue() <= now || players.contains(reservation.getKey()))
+                    reserved.remove();
+            }
+
+            if(entry.getValue().isEmpty())
+                iterator.remove();
+        }
+    }
+
+    /**
+     * This interface represents the creator of the new game
+     * instances that queued players are seated in.
+     */
+    public interface InstanceFactory
+    {
+        /**
+         * Creates, registers and starts a new game instance.
+         *
+         * @param name the name of the instance.
+         * @return <tt>true</tt> if the instance was created
+         *         and <tt>false</tt> otherwise.
+         */
+        boolean createInstance(String name);
+    }
+
+    /**
+     * This interface represents the receiver of a queued
+     * player's seat.
+     */
+    public interface SeatListener
+    {
+        /**
+         * Called once when the player has been matched. It is called
+         * on a request thread, so implementations must never block.
+         *
+         * @param instanceName the name of the instance that the player
+         *                     may join, or <tt>null</tt> if the player
+         *                     could not be seated.
+         */
+        void seated(String instanceName);
+    }
+
+    private static class Ticket
+    {
+        private final String playerName;
+        private final SeatListener listener;
+        private String instanceName;
+
+        private Ticket(String playerName, SeatListener listener)
+        {
+            this.playerName = playerName;
+            this.listener = listener;
+        }
+    }
+}
@@ -1,22 +1,26 @@
 package janken.server;
 
-import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * This class represents a player connection to a
- * game instance on the server. It is a container class,
- * and as such offers only methods to change and to retrieve
- * the state of the object.
+ * game instance on the server. It is mainly a container class,
+ * and as such offers methods to change and to retrieve
+ * the state of the object, along with a short queue of
+ * messages that the player sent before the game was
+ * ready to collect them.
  * 
  * @author Rikard Nordström
  */
 public class PlayerConnection 
 {
+    private static final int MAX_PENDING_MESSAGES = 4;
     private String playerName;
-    private Socket socket;
-    private Socket utilitySocket;
-    private StreamPair streams;
-    private StreamPair utilityStreams;
+    private volatile FramedChannel channel;
+    private volatile FramedChannel utilityChannel;
+    private final BlockingQueue<Object> messages = 
+            new LinkedBlockingQueue<>(MAX_PENDING_MESSAGES);
     private boolean isReady;
     private String choice;
     private int score;
@@ -42,99 +46,106 @@ public class PlayerConnection
     }
 
     /**
-     * Retrieves the player's primary
-     * socket connection.
+     * Retrieves the player's primary connection.
      * 
-     * @return the player's primary socket.
-     * @see Socket
+     * @return the player's primary connection.
+     * @see FramedChannel
      */
-    public Socket getSocket() 
+    public FramedChannel getChannel() 
     {
-        return socket;
+        return channel;
     }
 
     /**
-     * Sets the player's primary socket connection.
+     * Sets the player's primary connection.
      * 
-     * @param socket the player's socket.
-     * @see Socket
+     * @param channel the player's primary connection.
+     * @see FramedChannel
      */
-    public void setSocket(Socket socket) 
+    public void setChannel(FramedChannel channel) 
     {
-        this.socket = socket;
+        this.channel = channel;
     }
     
     /**
-     * Retrieves the player's secondary
-     * socket connection.
+     * Retrieves the player's secondary connection.
      * 
-     * @return the player's secondary socket.
-     * @see Socket
+     * @return the player's secondary connection.
+     * @see FramedChannel
      */
-    public Socket getUtilitySocket() 
+    public FramedChannel getUtilityChannel() 
     {
-        return utilitySocket;
+        return utilityChannel;
     }
 
     /**
-     * Sets the player's secondary socket connection.
+     * Sets the player's secondary connection.
      * 
-     * @param utilitySocket the player's secondary socket.
-     * @see Socket
+     * @param utilityChannel the player's secondary connection.
+     * @see FramedChannel
      */
-    public void setUtilitySocket(Socket utilitySocket) 
+    public void setUtilityChannel(FramedChannel utilityChannel) 
     {
-        this.utilitySocket = utilitySocket;
+        this.utilityChannel = utilityChannel;
     }
-
+    
     /**
-     * Retrieves the player's primary communication
-     * streams.
+     * Retrieves the number of bytes that the player's
+     * connections currently retain in buffers and
+     * outbound queues.
      * 
-     * @return the player's primary streams.
-     * @see StreamPair
+     * @return the number of retained bytes.
      */
-    public StreamPair getStreams() 
+    public int getRetainedBytes()
     {
-        return streams;
+        int retained = 0;
+        FramedChannel primary = channel;
+        FramedChannel secondary = utilityChannel;
+        
+        if(primary != null)
+            retained += primary.getRetainedBytes();
+        
+        if(secondary != null)
+            retained += secondary.getRetainedBytes();
+        
+        return retained;
     }
-
+    
     /**
-     * Sets the player's primary communication 
-     * streams.
+     * Queues a message that the player sent on their
+     * primary connection before the game was ready
+     * to collect it. Only a few messages are kept.
      * 
-     * @param streams the player's primary streams.
-     * @see StreamPair
+     * @param message the received message.
+     * @return <tt>true</tt> if the message was queued
+     *         and <tt>false</tt> if too many messages
+     *         are already pending.
      */
-    public void setStreams(StreamPair streams) 
+    public boolean offerMessage(Object message)
     {
-        this.streams = streams;
+        return messages.offer(message);
     }
-
+    
     /**
-     * Retrieves the player's secondary communication
-     * streams.
+     * Retrieves and removes the oldest pending message.
      * 
-     * @return the player's secondary streams.
-     * @see StreamPair
+     * @return the oldest pending message or <tt>null</tt>
+     *         if no message is pending.
      */
-    public StreamPair getUtilityStreams() 
+    public Object pollMessage()
     {
-        return utilityStreams;
+        return messages.poll();
     }
 
     /**
-     * Sets the player's secondary communication 
-     * streams.
-     * 
-     * @param utilityStreams the player's secondary streams.
-     * @see StreamPair
+     * Discards every pending message, typically because the
+     * phase that they were sent for has closed.
      */
-    public void setUtilityStreams(StreamPair utilityStreams) 
+    public void clearMessages()
     {
-        this.utilityStreams = utilityStreams;
+        messages.clear();
     }
-    
+
     /**
      * Retrieves the player's gameplay choice.
      * 
@@ -0,0 +1,132 @@
+package janken.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * This class represents the versioned roster of a game instance,
+ * along with the secondary connections that follow it. Every
+ * join or leave increments the version and records a small change
+ * frame, rather than requiring the full list to be sent again.
+ *
+ * <p> A connection that subscribes receives a snapshot of the
+ * roster straight away, and every change published after that.
+ * Changes are published in batches, so changes that are already
+ * part of a subscriber's snapshot may still reach it; clients
+ * discard any change whose version is not newer than their own.
+ * A roster that does not change sends nothing at all.
+ *
+ * <p> Players are kept in a linked hash set, so that joining and
+ * leaving take constant time however large the roster grows,
+ * while the order in which players joined is preserved.
+ *
+ * @author Rikard Nordström
+ * @see GameInstanceHandler
+ * @see RosterBroadcaster
+ */
+public class Roster
+{
+    private final LinkedHashSet<String> playerNames = new LinkedHashSet<>();
+    private final ArrayList<FramedChannel> subscribers = new ArrayList<>();
+    private final ArrayList<ByteBuffer> pendingChanges = new ArrayList<>();
+    private int pendingBytes = 0;
+    private volatile int version = 0;
+
+    /**
+     * Adds a player to the roster.
+     *
+     * @param playerName the name of the joining player.
+     */
+    public synchronized void join(String playerName)
+    {
+        playerNames.add(playerName);
+        addChange(GameCodec.encodeRosterJoin(++version, playerName));
+    }
+
+    /**
+     * Removes a player from the roster. Removing a player
+     * that is not on the roster has no effect.
+     *
+     * @param playerName the name of the leaving player.
+     */
+    public synchronized void leave(String playerName)
+    {
+        if(playerNames.remove(playerName))
+            addChange(GameCodec.encodeRosterLeave(++version, playerName));
+    }
+
+    /**
+     * Sends a snapshot of the roster to a connection and
+     * subscribes the connection to all later changes.
+     * Closed connections are unsubscribed automatically.
+     *
+     * @param channel the connection to subscribe.
+     * @see FramedChannel
+     */
+    public synchronized void subscribe(FramedChannel channel)
+    {
+        channel.send(GameCodec.encodeRoster(version, playerNames));
+        subscribers.add(channel);
+    }
+
+    /**
+     * Sends all changes recorded since the last publication
+     * to every subscribed connection, as a single write each.
+     */
+    public synchronized void publish()
+    {
+        if(pendingChanges.isEmpty())
+            return;
+
+        ByteBuffer changes = ByteBuffer.allocate(pendingBytes);
+
+        for (ByteBuffer change : pendingChanges)
+            changes.put(change);
+
+        changes.flip();
+        pendingChanges.clear();
+        pendingBytes = 0;
+
+        Iterator<FramedChannel> iterator = subscribers.iterator();
+
+        while(iterator.hasNext())
+        {
+            FramedChannel channel = iterator.next();
+
+            if(channel.isOpen())
+                channel.send(changes.duplicate());
+            else
+                iterator.remove();
+        }
+    }
+
+    /**
+     * Retrieves the current version of the roster.
+     *
+     * @return the roster version.
+     */
+    public int getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Retrieves the names of all players on the roster,
+     * in the order in which they joined.
+     *
+     * @return a list of the players' names.
+     * @see ArrayList
+     */
+    public synchronized ArrayList<String> getPlayerNames()
+    {
+        return new ArrayList<>(playerNames);
+    }
+
+    private void addChange(ByteBuffer change)
+    {
+        pendingChanges.add(change);
+        pendingBytes += change.remaining();
+    }
+}
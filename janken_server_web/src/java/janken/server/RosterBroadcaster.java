@@ -0,0 +1,147 @@
+package janken.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class publishes the roster changes of every registered
+ * game instance to its players' secondary connections. A single
+ * periodic task serves all instances, regardless of how many
+ * there are, so the size of the scheduler stays constant.
+ *
+ * <p> Instances are spread over a fixed number of shards, and
+ * each tick of the task walks a single shard, so every instance
+ * is visited once per period while the work of a single tick
+ * stays small. Each roster keeps a version that changes whenever
+ * the roster does, and instances whose version has not changed
+ * since their last visit are skipped.
+ *
+ * @author Rikard Nordström
+ * @see GameInstanceHandler
+ */
+public class RosterBroadcaster implements Runnable
+{
+    private final ConcurrentHashMap<GameInstanceHandler, Integer>[] shards;
+    private final long periodMillis;
+    private ScheduledFuture<?> task;
+    private int nextShard = 0;
+
+    /**
+     * Creates a roster broadcaster. Nothing is broadcast
+     * until the broadcaster has been started.
+     *
+     * @param period the time between visits to an instance.
+     * @param unit the unit of the period.
+     * @param numShards the number of shards that instances
+     *                  are spread over.
+     * @see TimeUnit
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public RosterBroadcaster(long period, TimeUnit unit, int numShards)
+    {
+        this.shards = new ConcurrentHashMap[Math.max(1, numShards)];
+        this.periodMillis = Math.max(shards.length, unit.toMillis(period));
+
+        for (int i = 0; i < shards.length; i++)
+            shards[i] = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Starts broadcasting rosters.
+     *
+     * @param scheduler the scheduler that runs the broadcast task.
+     * @see ScheduledExecutorService
+     */
+    public void start(ScheduledExecutorService scheduler)
+    {
+        long tickMillis = periodMillis / shards.length;
+
+        task = scheduler.scheduleAtFixedRate(this, tickMillis, tickMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops broadcasting rosters.
+     */
+    public void stop()
+    {
+        if(task != null)
+            task.cancel(false);
+    }
+
+    /**
+     * Registers an instance, whose roster changes are
+     * published on every visit to its shard.
+     *
+     * @param instance the instance to register.
+     */
+    public void register(GameInstanceHandler instance)
+    {
+        shardOf(instance).put(instance, -1);
+    }
+
+    /**
+     * Unregisters an instance, whose roster changes are no
+     * longer published.
+     *
+     * @param instance the instance to unregister.
+     */
+    public void unregister(GameInstanceHandler instance)
+    {
+        shardOf(instance).remove(instance);
+    }
+
+    /**
+     * Retrieves the number of registered instances.
+     *
+     * @return the number of registered instances.
+     */
+    public int getNumInstances()
+    {
+        int count = 0;
+
+        for (ConcurrentHashMap<GameInstanceHandler, Integer> shard : shards)
+            count += shard.size();
+
+        return count;
+    }
+
+    @Override
+    public void run()
+    {
+        ConcurrentHashMap<GameInstanceHandler, Integer> shard = shards[nextShard];
+        nextShard = (nextShard + 1) % shards.length;
+
+        for (Map.Entry<GameInstanceHandler, Integer> entry : shard.entrySet())
+        {
+            GameInstanceHandler instance = entry.getKey();
+            Roster roster = instance.getRoster();
+            int version = roster.getVersion();
+            Integer broadcastVersion = entry.getValue();
+
+            if(version == broadcastVersion)
+                continue;
+
+            try
+            {
+                roster.publish();
+                shard.replace(instance, broadcastVersion, version);
+            }
+            catch(RuntimeException re)
+            {
+                re.printStackTrace(System.err);
+            }
+        }
+    }
+
+    private ConcurrentHashMap<GameInstanceHandler, Integer> shardOf(
+            GameInstanceHandler instance)
+    {
+        int hash = System.identityHashCode(instance) & Integer.MAX_VALUE;
+
+        return shards[hash % shards.length];
+    }
+}
@@ -0,0 +1,154 @@
+package janken.server;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * This class collects one answer from each player taking part
+ * in a phase of a round, such as their ready status or their
+ * gameplay choice. Answers are offered concurrently as they
+ * arrive on the game transport, in any order, while the game
+ * thread waits for the collection to complete.
+ *
+ * <p> Only the answers that belong to the phase are accepted, so
+ * that a message meant for another phase, such as a choice that
+ * arrived after its deadline, is never taken for a ready status.
+ *
+ * <p> A collection completes as soon as every expected player
+ * has either answered or forfeited, or when it is expired by its
+ * deadline on the shared timing wheel, whichever comes first.
+ * Once complete, no further answers are accepted.
+ *
+ * @author Rikard Nordström
+ * @see GameInstanceHandler
+ * @see TimingWheel
+ */
+public class RoundCollector
+{
+    private final Map<PlayerConnection, Object> answers = new IdentityHashMap<>();
+    private final Map<PlayerConnection, Boolean> expected = new IdentityHashMap<>();
+    private final Collection<String> accepted;
+    private int remaining;
+    private boolean complete = false;
+
+    /**
+     * Creates a collector that expects one answer from
+     * each of the given players.
+     *
+     * @param players the players taking part in the phase.
+     * @param accepted the answers that belong to the phase.
+     * @see Collection
+     */
+    public RoundCollector(Collection<PlayerConnection> players, Collection<String> accepted)
+    {
+        this.accepted = accepted;
+
+        for (PlayerConnection player : players)
+            expected.put(player, Boolean.TRUE);
+
+        remaining = expected.size();
+        complete = remaining == 0;
+    }
+
+    /**
+     * Offers an answer from a player. Only the first answer
+     * from each expected player is accepted, only if it belongs
+     * to the phase and only while the collection is incomplete.
+     *
+     * @param player the answering player.
+     * @param answer the player's answer.
+     * @return <tt>true</tt> if the answer was accepted
+     *         and <tt>false</tt> otherwise.
+     */
+    public synchronized boolean offer(PlayerConnection player, Object answer)
+    {
+        if(complete || !expected.containsKey(player) || answers.containsKey(player)
+                || !accepted.contains(answer))
+            return false;
+
+        answers.put(player, answer);
+        countDown();
+
+        return true;
+    }
+
+    /**
+     * Stops waiting for a player, typically because they
+     * have disconnected. The player's answer, if already
+     * given, is kept.
+     *
+     * @param player the player to stop waiting for.
+     */
+    public synchronized void forfeit(PlayerConnection player)
+    {
+        if(complete || expected.remove(player) == null || answers.containsKey(player))
+            return;
+
+        countDown();
+    }
+
+    /**
+     * Waits until the collection is complete, either because
+     * every expected player answered or forfeited, or because
+     * the collection expired.
+     *
+     * @return <tt>true</tt> if every expected player answered
+     *         or forfeited and <tt>false</tt> if the collection expired.
+     * @throws InterruptedException if interrupted while waiting.
+     * @see #expire()
+     */
+    public synchronized boolean await() throws InterruptedException
+    {
+        while(!complete)
+            wait();
+
+        return remaining == 0;
+    }
+
+    /**
+     * Completes the collection, typically because its deadline
+     * has passed. Players that have yet to answer are left
+     * without an answer. Expiring a complete collection has
+     * no effect.
+     */
+    public synchronized void expire()
+    {
+        if(complete)
+            return;
+
+        complete = true;
+        notifyAll();
+    }
+
+    /**
+     * Retrieves a player's answer.
+     *
+     * @param player the player.
+     * @return the player's answer or <tt>null</tt> if
+     *         the player did not answer.
+     */
+    public synchronized Object getAnswer(PlayerConnection player)
+    {
+        return answers.get(player);
+    }
+
+    /**
+     * Retrieves the number of players that answered.
+     *
+     * @return the number of answers.
+     */
+    public synchronized int getNumAnswers()
+    {
+        return answers.size();
+    }
+
+    private void countDown()
+    {
+        if(--remaining == 0)
+        {
+            complete = true;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package janken.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * This class represents the rules of a game: the choices that
+ * players may make and which choices beat which. A round is
+ * resolved by tallying how many players made each choice, after
+ * which every player's score is the number of opponents whose
+ * choice its own beats. Resolving a round therefore costs time
+ * proportional to the number of players plus the number of
+ * choices, rather than to the number of pairs of players.
+ *
+ * <p> Most rule sets are cyclic: the choices are arranged in a
+ * circle of odd length, and each choice beats the choices an odd
+ * number of steps behind it, while losing to the rest. Classic
+ * rock-paper-scissors is the smallest such game, and
+ * rock-paper-scissors-Spock-lizard the next. Rule sets that are
+ * not cyclic may be given as a table instead.
+ *
+ * <p> Players that made no choice, or a choice that is not part
+ * of the rule set, neither score nor count as opponents.
+ *
+ * @author Rikard Nordström
+ * @see GameSettings
+ */
+public class RuleSet
+{
+    /** Marks a player that made no valid choice. */
+    public static final int NO_CHOICE = -1;
+    /** Rock, paper and scissors. */
+    public static final RuleSet CLASSIC =
+            cyclic("classic", "rock", "paper", "scissors");
+    /** Rock, paper, scissors, Spock and lizard. */
+    public static final RuleSet RPSLS =
+            cyclic("rpsls", "rock", "paper", "scissors", "spock", "lizard");
+    private final String name;
+    private final String[] choices;
+    private final HashMap<String, Integer> indexes = new HashMap<>();
+    private final int[][] beaten;
+    private final boolean cyclic;
+
+    /**
+     * Creates a rule set from a table, where <tt>beats[i][j]</tt>
+     * is <tt>true</tt> if choice <tt>i</tt> beats choice <tt>j</tt>.
+     *
+     * @param name the name of the rule set.
+     * @param choices the choices that players may make.
+     * @param beats the table of which choices beat which.
+     * @throws IllegalArgumentException if the table is not square, if a
+     *         choice beats itself or if two choices beat each other.
+     */
+    public RuleSet(String name, String[] choices, boolean[][] beats)
+    {
+        this(name, choices, beats, false);
+    }
+
+    private RuleSet(String name, String[] choices, boolean[][] beats, boolean cyclic)
+    {
+        this.name = name;
+        this.choices = choices.clone();
+        this.beaten = new int[choices.length][];
+        this.cyclic = cyclic;
+
+        if(beats.length != choices.length)
+            throw new IllegalArgumentException("The table must have a row per choice.");
+
+        for (int i = 0; i < choices.length; i++)
+        {
+            ArrayList<Integer> row = new ArrayList<>();
+
+            if(beats[i].length != choices.length)
+                throw new IllegalArgumentException("The table must have a column per choice.");
+
+            for (int j = 0; j < choices.length; j++)
+            {
+                if(beats[i][j] && (i == j || beats[j][i]))
+                    throw new IllegalArgumentException(choices[i] + " and " + choices[j]
+                            + " cannot beat each other.");
+
+                if(beats[i][j])
+                    row.add(j);
+            }
+
+            beaten[i] = new int[row.size()];
+
+            for (int j = 0; j < beaten[i].length; j++)
+                beaten[i][j] = row.get(j);
+
+            indexes.put(choices[i], i);
+        }
+    }
+
+    /**
+     * Creates a cyclic rule set, in which every choice beats the
+     * choices an odd number of steps before it.
+     *
+     * @param name the name of the rule set.
+     * @param choices the choices in their cyclic order.
+     * @return the rule set.
+     * @throws IllegalArgumentException unless there is an odd
+     *         number of at least three choices.
+     */
+    public static RuleSet cyclic(String name, String... choices)
+    {
+        int k = choices.length;
+
+        if(k < 3 || k % 2 == 0)
+            throw new IllegalArgumentException("A cyclic game needs an odd number "
+                    + "of at least three choices.");
+
+        boolean[][] beats = new boolean[k][k];
+
+        for (int i = 0; i < k; i++)
+        {
+            for (int step = 1; step < k; step += 2)
+                beats[i][(i - step + k) % k] = true;
+        }
+
+        return new RuleSet(name, choices, beats, true);
+    }
+
+    /**
+     * Retrieves one of the built-in rule sets by name.
+     *
+     * @param name the name of the rule set.
+     * @return the rule set, or <tt>null</tt> if there is
+     *         no built-in rule set by that name.
+     */
+    public static RuleSet forName(String name)
+    {
+        if(CLASSIC.name.equals(name))
+            return CLASSIC;
+        else if(RPSLS.name.equals(name))
+            return RPSLS;
+
+        return null;
+    }
+
+    /**
+     * Retrieves the name of the rule set.
+     *
+     * @return the rule set's name.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Retrieves the number of choices in the rule set.
+     *
+     * @return the number of choices.
+     */
+    public int getNumChoices()
+    {
+        return choices.length;
+    }
+
+    /**
+     * Retrieves the choices that players may make.
+     *
+     * @return an unmodifiable list of the choices, in order.
+     * @see List
+     */
+    public List<String> getChoices()
+    {
+        return Collections.unmodifiableList(Arrays.asList(choices));
+    }
+
+    /**
+     * Retrieves the index of a choice.
+     *
+     * @param choice the choice.
+     * @return the index of the choice, or {@value #NO_CHOICE} if the
+     *         choice is <tt>null</tt> or not part of the rule set.
+     */
+    public int indexOf(String choice)
+    {
+        Integer index = choice == null ? null : indexes.get(choice);
+
+        return index == null ? NO_CHOICE : index;
+    }
+
+    /**
+     * Scores a round.
+     *
+     * @param playerChoices the index of each player's choice, or
+     *                      {@value #NO_CHOICE} for players that made
+     *                      no valid choice.
+     * @return each player's score: the number of opponents that
+     *         the player beat, or zero if it made no choice.
+     */
+    public int[] score(int[] playerChoices)
+    {
+        int k = choices.length;
+        int[] counts = new int[k];
+        int[] points = new int[k];
+        int total = 0;
+
+        for (int choice : playerChoices)
+        {
+            if(choice != NO_CHOICE)
+            {
+                counts[choice]++;
+                total++;
+            }
+        }
+
+        if(cyclic)
+        {
+            // Neighbours together beat everything but the choice after them.
+            for (int opponent : beaten[0])
+                points[0] += counts[opponent];
+
+            for (int i = 1; i < k; i++)
+                points[i] = total - counts[i] - points[i - 1];
+        }
+        else
+        {
+            for (int i = 0; i < k; i++)
+            {
+                for (int opponent : beaten[i])
+                    points[i] += counts[opponent];
+            }
+        }
+
+        int[] scores = new int[playerChoices.length];
+
+        for (int i = 0; i < playerChoices.length; i++)
+        {
+            if(playerChoices[i] != NO_CHOICE)
+                scores[i] = points[playerChoices[i]];
+        }
+
+        return scores;
+    }
+}
@@ -0,0 +1,186 @@
+package janken.server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * This class issues and verifies the session tokens that players
+ * present when connecting to a game instance. A token names the
+ * player and the time at which it was issued, and is signed with
+ * a key that never leaves the server, so that it can be verified
+ * without consulting the database. Tokens expire after a fixed
+ * lifetime.
+ *
+ * <p> A token is encoded as the player's name, the time of issue
+ * and the signature, separated by dots. The name and the signature
+ * are encoded in URL-safe base 64, and the time in base 36.
+ *
+ * <p> A player's tokens are revoked by recording the time of
+ * revocation, which invalidates every token issued to the player
+ * up to then. A revocation is forgotten once every token that it
+ * applies to has expired, so the revocations kept are bounded by
+ * the number of players that logged out within one lifetime.
+ *
+ * @author Rikard Nordström
+ * @see GameTransport
+ */
+public class SessionTokens
+{
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int KEY_SIZE = 32;
+    private static final int MIN_PURGE_SIZE = 1024;
+    private final SecretKeySpec key;
+    private final long lifetime;
+    private final ConcurrentHashMap<String, Long> revocations = new ConcurrentHashMap<>();
+    private final ThreadLocal<Mac> macs;
+    private volatile int purgeSize = MIN_PURGE_SIZE;
+
+    /**
+     * Creates an issuer with a new random key. Tokens issued by
+     * other issuers, including those issued before a restart,
+     * are not accepted.
+     *
+     * @param lifetime the time in milliseconds that a token is valid.
+     */
+    public SessionTokens(long lifetime)
+    {
+        byte[] secret = new byte[KEY_SIZE];
+        new SecureRandom().nextBytes(secret);
+
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+        this.lifetime = lifetime;
+        this.macs = new ThreadLocal<Mac>()
+        {
+            @Override
+            protected Mac initialValue()
+            {
+                try
+                {
+                    Mac mac = Mac.getInstance(ALGORITHM);
+                    mac.init(key);
+
+                    return mac;
+                }
+                catch(NoSuchAlgorithmException | InvalidKeyException e)
+                {
+                    throw new IllegalStateException("Could not create a " + ALGORITHM
+                            + " signer.", e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Issues a token to a player.
+     *
+     * @param playerName the player's username.
+     * @return the token.
+     */
+    public String issue(String playerName)
+    {
+        String payload = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(playerName.getBytes(StandardCharsets.UTF_8))
+                + "." + Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+
+        return payload + "." + Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(sign(payload));
+    }
+
+    /**
+     * Verifies a token.
+     *
+     * @param token the token.
+     * @return the name of the player that the token was issued to, or
+     *         <tt>null</tt> if the token is malformed, has been tampered
+     *         with, has expired or has been revoked.
+     */
+    public String verify(String token)
+    {
+        if(token == null)
+            return null;
+
+        int nameEnd = token.indexOf('.');
+        int issuedEnd = token.lastIndexOf('.');
+
+        if(nameEnd <= 0 || issuedEnd <= nameEnd)
+            return null;
+
+        try
+        {
+            String payload = token.substring(0, issuedEnd);
+            byte[] signature = Base64.getUrlDecoder().decode(token.substring(issuedEnd + 1));
+
+            if(!MessageDigest.isEqual(signature, sign(payload)))
+                return null;
+
+            long issued = Long.parseLong(token.substring(nameEnd + 1, issuedEnd),
+                    Character.MAX_RADIX);
+            String playerName = new String(Base64.getUrlDecoder()
+                    .decode(token.substring(0, nameEnd)), StandardCharsets.UTF_8);
+            Long revoked = revocations.get(playerName);
+
+            if(System.currentTimeMillis() - issued > lifetime
+                    || (revoked != null && issued <= revoked))
+                return null;
+
+            return playerName;
+        }
+        catch(IllegalArgumentException iae)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Revokes every token issued to a player up to now.
+     *
+     * @param playerName the player's username.
+     */
+    public void revoke(String playerName)
+    {
+        revocations.put(playerName, System.currentTimeMillis());
+
+        if(revocations.size() >= purgeSize)
+        {
+            purge();
+            purgeSize = Math.max(MIN_PURGE_SIZE, 2 * revocations.size());
+        }
+    }
+
+    /**
+     * Retrieves the number of revocations kept.
+     *
+     * @return the number of revocations.
+     */
+    public int getRevocationCount()
+    {
+        return revocations.size();
+    }
+
+    private void purge()
+    {
+        long oldest = System.currentTimeMillis() - lifetime;
+        Iterator<Map.Entry<String, Long>> iterator = revocations.entrySet().iterator();
+
+        while(iterator.hasNext())
+        {
+            // Every token this revocation applies to has expired.
+            if(iterator.next().getValue() < oldest)
+                iterator.remove();
+        }
+    }
+
+    private byte[] sign(String payload)
+    {
+        return macs.get().doFinal(payload.getBytes(StandardCharsets.UTF_8));
+    }
+}
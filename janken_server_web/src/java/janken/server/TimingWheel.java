@@ -0,0 +1,246 @@
+package janken.server;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class represents a hashed timing wheel, a timer that is
+ * shared by all game instances on the server. Timeouts are hashed
+ * into a fixed number of buckets by their expiry tick, and a single
+ * thread advances the wheel one bucket per tick, expiring whatever
+ * is due. Scheduling and cancelling a timeout both take constant
+ * time, so tens of thousands of pending deadlines cost little more
+ * than the memory they occupy.
+ *
+ * <p> Timeouts expire on the wheel's own thread, with a precision
+ * of one tick. Expiry tasks must therefore be short and must never
+ * block.
+ *
+ * @author Rikard Nordström
+ * @see Timeout
+ */
+public class TimingWheel implements Runnable
+{
+    private final long tickMillis;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final ConcurrentLinkedQueue<Timeout> additions = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private long startTime;
+    private long tick;
+    private volatile boolean running;
+
+    /**
+     * Creates a timing wheel. The wheel does not
+     * advance until it has been started.
+     *
+     * @param tickDuration the duration of one tick.
+     * @param unit the unit of the tick duration.
+     * @param numBuckets the number of buckets, which is
+     *                   rounded up to a power of two.
+     * @see TimeUnit
+     */
+    public TimingWheel(long tickDuration, TimeUnit unit, int numBuckets)
+    {
+        int size = Integer.highestOneBit(Math.max(1, numBuckets - 1)) << 1;
+
+        this.tickMillis = Math.max(1, unit.toMillis(tickDuration));
+        this.buckets = new Timeout[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Starts advancing the wheel.
+     *
+     * @param executor the executor that runs the wheel's thread.
+     * @see ExecutorService
+     */
+    public void start(ExecutorService executor)
+    {
+        startTime = System.currentTimeMillis();
+        running = true;
+        executor.submit(this);
+    }
+
+    /**
+     * Stops advancing the wheel. Pending timeouts never expire.
+     */
+    public void stop()
+    {
+        running = false;
+    }
+
+    /**
+     * Schedules a task to be run once a delay has passed.
+     *
+     * @param task the task to run on expiry.
+     * @param delay the delay before expiry.
+     * @param unit the unit of the delay.
+     * @return a handle that may be used to cancel the timeout.
+     * @see Timeout
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit)
+    {
+        Timeout timeout = new Timeout(task,
+                System.currentTimeMillis() + Math.max(0, unit.toMillis(delay)));
+        pending.incrementAndGet();
+        additions.add(timeout);
+
+        return timeout;
+    }
+
+    /**
+     * Retrieves the number of timeouts that have
+     * neither expired nor been cancelled.
+     *
+     * @return the number of pending timeouts.
+     */
+    public int getPendingCount()
+    {
+        return pending.get();
+    }
+
+    @Override
+    public void run()
+    {
+        while(running)
+        {
+            long nextTick = startTime + (tick + 1) * tickMillis;
+            long sleep = nextTick - System.currentTimeMillis();
+
+            if(sleep > 0)
+            {
+                try
+                {
+                    Thread.sleep(sleep);
+                }
+                catch(InterruptedException ie)
+                {
+                    return;
+                }
+            }
+
+            transferAdditions();
+            expireBucket((int) (tick & mask));
+            tick++;
+        }
+    }
+
+    private void transferAdditions()
+    {
+        Timeout timeout;
+
+        while((timeout = additions.poll()) != null)
+        {
+            if(timeout.isCancelled())
+                continue;
+
+            long expiryTick = Math.max(tick, (timeout.deadline - startTime) / tickMillis);
+            int bucket = (int) (expiryTick & mask);
+
+            timeout.rounds = (expiryTick - tick) / buckets.length;
+            timeout.next = buckets[bucket];
+            buckets[bucket] = timeout;
+        }
+    }
+
+    private void expireBucket(int bucket)
+    {
+        Timeout timeout = buckets[bucket];
+        Timeout remaining = null;
+
+        while(timeout != null)
+        {
+            Timeout next = timeout.next;
+
+            if(timeout.isCancelled())
+            {
+                timeout.next = null;
+            }
+            else if(timeout.rounds > 0)
+            {
+                timeout.rounds--;
+                timeout.next = remaining;
+                remaining = timeout;
+            }
+            else
+            {
+                timeout.next = null;
+                timeout.expire();
+            }
+
+            timeout = next;
+        }
+
+        buckets[bucket] = remaining;
+    }
+
+    /**
+     * This class represents a scheduled task on the wheel.
+     */
+    public class Timeout
+    {
+        private static final int WAITING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private long rounds;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline)
+        {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the timeout, so that its task is never run.
+         * Cancelling an expired timeout has no effect.
+         *
+         * @return <tt>true</tt> if the timeout was cancelled
+         *         and <tt>false</tt> if it had already expired
+         *         or been cancelled.
+         */
+        public boolean cancel()
+        {
+            if(!state.compareAndSet(WAITING, CANCELLED))
+                return false;
+
+            pending.decrementAndGet();
+
+            return true;
+        }
+
+        /**
+         * Used to check if the timeout has been cancelled.
+         *
+         * @return <tt>true</tt> if the timeout has been
+         *         cancelled and <tt>false</tt> otherwise.
+         */
+        public boolean isCancelled()
+        {
+            return state.get() == CANCELLED;
+        }
+
+        private void expire()
+        {
+            if(!state.compareAndSet(WAITING, EXPIRED))
+                return;
+
+            pending.decrementAndGet();
+
+            try
+            {
+                task.run();
+            }
+            catch(RuntimeException re)
+            {
+                re.printStackTrace(System.err);
+            }
+        }
+    }
+}